@@ -0,0 +1,51 @@
+package Benchmarks;
+
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.UDPConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures how long it takes to split a request or response body into DATA packets,
+ * from 1 KB to 100 MB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class BuildPacketsBenchmark {
+
+    // 1 KB, 1 MB and 100 MB
+    @Param({"1024", "1048576", "104857600"})
+    private int payloadSize;
+
+    private String payload;
+    private InetAddress peerAddress;
+
+    @Setup
+    public void setUp() {
+        payload = "a".repeat(payloadSize);
+        peerAddress = InetAddress.getLoopbackAddress();
+    }
+
+    @Benchmark
+    public ArrayList<Packet> buildPackets() {
+        return UDPConnection.buildPackets(payload, PacketType.DATA, 8080, peerAddress);
+    }
+}
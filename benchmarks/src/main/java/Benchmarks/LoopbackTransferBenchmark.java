@@ -0,0 +1,131 @@
+package Benchmarks;
+
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.UDPConnection;
+import Router.Router;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This benchmark measures a whole selective repeat transfer, from the first DATA packet to the ACK of the FIN,
+ * between two sockets on the loopback interface through an embedded Router that drops packets at the given rate.
+ * The router is seeded, so every run loses the same packets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class LoopbackTransferBenchmark {
+
+    // The loopback RTT is in microseconds, the default timeout of 10 seconds would only measure the timer
+    private final static long RETRANSMISSION_TIMEOUT = 50;
+
+    @Param({"0", "0.01", "0.05"})
+    private double lossRate;
+
+    @Param({"1", "3", "16"})
+    private int windowSize;
+
+    @Param({"65536"})
+    private int payloadSize;
+
+    private Router router;
+    private SocketAddress routerAddress;
+    private DatagramSocket senderSocket;
+    private DatagramSocket receiverSocket;
+    private ArrayList<Packet> packets;
+
+    @Setup
+    public void setUp() throws IOException {
+        Logger.getLogger(UDPConnection.class.getName()).setLevel(Level.WARNING);
+        Logger.getLogger(Router.class.getName()).setLevel(Level.WARNING);
+
+        router = new Router.Builder()
+                .setPort(0)
+                .setDropRate(lossRate)
+                .setSeed(445)
+                .create()
+                .start();
+        routerAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), router.getPort());
+
+        senderSocket = new DatagramSocket();
+        receiverSocket = new DatagramSocket();
+        packets = UDPConnection.buildPackets("a".repeat(payloadSize), PacketType.DATA,
+                receiverSocket.getLocalPort(), InetAddress.getLoopbackAddress());
+
+        Thread receiver = new Thread(this::receive, "Receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        senderSocket.close();
+        receiverSocket.close();
+        router.close();
+    }
+
+    @Benchmark
+    public int transfer() {
+        UDPConnection sender = newConnection(senderSocket);
+        sender.sendUsingSelectiveRepeat(packets, receiverSocket.getLocalPort(), InetAddress.getLoopbackAddress());
+        return packets.size();
+    }
+
+    // Receives transfers one after the other until the socket is closed, each with a new connection like the server does
+    private void receive() {
+        UDPConnection receiver = newConnection(receiverSocket);
+        byte[] buffer = new byte[Packet.MAX_LEN];
+
+        while (!receiverSocket.isClosed()) {
+            DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+            try {
+                receiverSocket.receive(datagramPacket);
+                Packet packet = Packet.fromBytes(Arrays.copyOf(buffer, datagramPacket.getLength()));
+
+                if (packet.getType() == PacketType.DATA.value) {
+                    receiver.receiveData(packet);
+                } else if (packet.getType() == PacketType.FIN.value) {
+                    // A FIN resent because its ACK was dropped is acknowledged by the next connection
+                    receiver.receiveFIN(packet);
+                    receiver = newConnection(receiverSocket);
+                }
+            } catch (IOException e) {
+                // The socket is closed at tear down
+            }
+        }
+    }
+
+    private UDPConnection newConnection(DatagramSocket socket) {
+        UDPConnection connection = new UDPConnection(socket);
+        connection.setRouterAddress(routerAddress);
+        connection.setWindowSize(windowSize);
+        connection.setRetransmissionTimeout(RETRANSMISSION_TIMEOUT);
+        return connection;
+    }
+}
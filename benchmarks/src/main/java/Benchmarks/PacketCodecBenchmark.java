@@ -0,0 +1,64 @@
+package Benchmarks;
+
+import Helpers.Packet;
+import Helpers.PacketType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark measures how fast a Packet is encoded to and decoded from its raw representation,
+ * for an empty packet (SYN, ACK, FIN) and a full DATA packet, with and without its CRC32C.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketCodecBenchmark {
+
+    @Param({"0", "1009"})
+    private int payloadSize;
+
+    @Param({"true", "false"})
+    private boolean isChecksumEnabled;
+
+    private Packet packet;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        Packet.setChecksumEnabled(isChecksumEnabled);
+        packet = new Packet.Builder()
+                .setType(PacketType.DATA.value)
+                .setSequenceNumber(42)
+                .setPeerAddress(InetAddress.getLoopbackAddress())
+                .setPortNumber(8080)
+                .setPayload(new byte[payloadSize])
+                .create();
+        bytes = packet.toBytes();
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return packet.toBytes();
+    }
+
+    @Benchmark
+    public Packet fromBytes() throws IOException {
+        return Packet.fromBytes(bytes);
+    }
+}
@@ -0,0 +1,96 @@
+package Client;
+
+import Client.Requests.GetRequest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+    private static final String EOL = "\r\n";
+    private static final GetRequest REQUEST = new GetRequest("localhost", "/hello.txt", null, new ArrayList<>(), 8080);
+    private static final byte[] BODY = "This is a text.".getBytes(UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private static HttpResponse<byte[]> response(String... headers) {
+        StringBuilder head = new StringBuilder("HTTP/1.0 200 OK" + EOL);
+        for (String header : headers)
+            head.append(header).append(EOL);
+        return new HttpResponse<>(head.append(EOL).toString(), BODY, 0, 0, 0);
+    }
+
+    @Test
+    void responseIsFreshWhileItsMaxAgeLasts() throws IOException {
+        ResponseCache cache = new ResponseCache(directory);
+        cache.put(REQUEST, response("Cache-Control: max-age=60"));
+
+        ResponseCache.Entry entry = cache.get(REQUEST);
+        assertNotNull(entry);
+        assertTrue(entry.isFresh());
+        assertArrayEquals(BODY, entry.getResponse().getBody());
+        assertTrue(entry.getResponse().isFromCache());
+    }
+
+    @Test
+    void responseToRevalidateIsNotFresh() throws IOException {
+        ResponseCache cache = new ResponseCache(directory);
+        cache.put(REQUEST, response("Cache-Control: max-age=0", "ETag: \"a\""));
+        assertFalse(cache.get(REQUEST).isFresh());
+
+        cache.put(REQUEST, response("Cache-Control: no-cache, max-age=60"));
+        assertFalse(cache.get(REQUEST).isFresh());
+
+        // Without a max-age, a response with a validator is kept but always revalidated
+        cache.put(REQUEST, response("Last-Modified: Thu, 14 Dec 2023 10:15:30 GMT"));
+        ResponseCache.Entry entry = cache.get(REQUEST);
+        assertFalse(entry.isFresh());
+        assertEquals("Thu, 14 Dec 2023 10:15:30 GMT", entry.getLastModified());
+    }
+
+    @Test
+    void responseThatCannotBeReusedIsNotStored() throws IOException {
+        ResponseCache cache = new ResponseCache(directory);
+        cache.put(REQUEST, response("Cache-Control: no-store", "ETag: \"a\""));
+        assertNull(cache.get(REQUEST));
+
+        cache.put(REQUEST, response());
+        assertNull(cache.get(REQUEST));
+    }
+
+    @Test
+    void responseIsReadBackByAnotherCache() throws IOException {
+        new ResponseCache(directory).put(REQUEST, response("Cache-Control: max-age=60", "ETag: \"a\""));
+
+        ResponseCache.Entry entry = new ResponseCache(directory).get(REQUEST);
+        assertNotNull(entry);
+        assertTrue(entry.isFresh());
+        assertEquals("\"a\"", entry.getEntityTag());
+        assertArrayEquals(BODY, entry.getResponse().getBody());
+    }
+
+    @Test
+    void notModifiedRenewsTheFreshness() throws IOException {
+        ResponseCache cache = new ResponseCache(directory);
+        cache.put(REQUEST, response("Cache-Control: max-age=0", "ETag: \"a\""));
+
+        HttpResponse<byte[]> notModified = new HttpResponse<>("HTTP/1.0 304 Not Modified" + EOL + "Cache-Control: max-age=60" + EOL + EOL,
+                new byte[0], 0, 0, 0);
+        ResponseCache.Entry entry = cache.revalidate(cache.get(REQUEST), notModified);
+
+        assertTrue(entry.isFresh());
+        assertArrayEquals(BODY, entry.getResponse().getBody());
+        assertEquals("\"a\"", entry.getEntityTag());
+    }
+}
@@ -0,0 +1,67 @@
+package Helpers;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReadsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    void smallValuesHaveABucketEach() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 128; value++)
+            histogram.record(value);
+
+        assertEquals(128, histogram.getCount());
+        assertEquals(63.5, histogram.getMean());
+        assertEquals(63, histogram.getValueAtPercentile(50));
+        assertEquals(126, histogram.getValueAtPercentile(99));
+        assertEquals(127, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void largeValuesAreWithinTheirBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = {1_000, 65_537, 12_345_678, 3_000_000_000L};
+        for (long value : values) {
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE / 2);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            // The small values are the first 4 of the 8 values recorded
+            long valueAtPercentile = histogram.getValueAtPercentile(100.0 * (i + 1) / 8);
+            assertTrue(valueAtPercentile >= values[i], values[i] + " read as " + valueAtPercentile);
+            assertTrue(valueAtPercentile <= values[i] + values[i] / 64, values[i] + " read as " + valueAtPercentile);
+        }
+    }
+
+    @Test
+    void percentileIsNeverAboveTheMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001);
+
+        assertEquals(1_000_001, histogram.getMax());
+        assertEquals(1_000_001, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void negativeValuesAreIgnored() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(10);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(10, histogram.getMean());
+    }
+}
@@ -0,0 +1,117 @@
+package Helpers;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PacketTest {
+    private static final byte[] PAYLOAD = "GET /hello.txt HTTP/1.0".getBytes(UTF_8);
+
+    @AfterEach
+    void disableChecksum() {
+        Packet.setChecksumEnabled(false);
+    }
+
+    private static Packet createPacket() throws IOException {
+        return new Packet.Builder()
+                .setType(PacketType.DATA.value)
+                .setSequenceNumber(542)
+                .setPeerAddress(InetAddress.getByName("127.0.0.1"))
+                .setPortNumber(8080)
+                .setPayload(PAYLOAD)
+                .create();
+    }
+
+    private static void assertSamePacket(Packet expected, Packet actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSequenceNumber(), actual.getSequenceNumber());
+        assertEquals(expected.getPeerAddress(), actual.getPeerAddress());
+        assertEquals(expected.getPeerPort(), actual.getPeerPort());
+        assertArrayEquals(expected.getPayload(), actual.getPayload());
+    }
+
+    @Test
+    void packetWithoutChecksumKeepsTheOriginalFormat() throws IOException {
+        Packet packet = createPacket();
+        byte[] bytes = packet.toBytes();
+
+        assertEquals(Packet.MIN_LEN + PAYLOAD.length, bytes.length);
+        assertEquals(PacketType.DATA.value, bytes[0]);
+        assertSamePacket(packet, Packet.fromBytes(bytes));
+    }
+
+    @Test
+    void packetWithChecksumIsReadBack() throws IOException {
+        Packet.setChecksumEnabled(true);
+        Packet packet = createPacket();
+        byte[] bytes = packet.toBytes();
+
+        assertEquals(Packet.MIN_LEN + Packet.CHECKSUM_LEN + PAYLOAD.length, bytes.length);
+        assertSamePacket(packet, Packet.fromBytes(bytes));
+    }
+
+    @Test
+    void packetWithChecksumIsReadWhenChecksumsAreOff() throws IOException {
+        Packet.setChecksumEnabled(true);
+        Packet packet = createPacket();
+        byte[] bytes = packet.toBytes();
+        Packet.setChecksumEnabled(false);
+
+        assertSamePacket(packet, Packet.fromBytes(bytes));
+    }
+
+    @Test
+    void corruptedPayloadIsRejected() throws IOException {
+        Packet.setChecksumEnabled(true);
+        byte[] bytes = createPacket().toBytes();
+        bytes[bytes.length - 1] ^= 0x01;
+
+        assertThrows(IOException.class, () -> Packet.fromBytes(bytes));
+    }
+
+    @Test
+    void corruptedSequenceNumberIsRejected() throws IOException {
+        Packet.setChecksumEnabled(true);
+        byte[] bytes = createPacket().toBytes();
+        bytes[4] ^= 0x10;
+
+        assertThrows(IOException.class, () -> Packet.fromBytes(bytes));
+    }
+
+    @Test
+    void anySingleBitFlipOfTheTypeIsRejected() throws IOException {
+        Packet.setChecksumEnabled(true);
+        for (int bit = 0; bit < 8; bit++) {
+            byte[] bytes = createPacket().toBytes();
+            bytes[0] ^= 1 << bit;
+
+            assertThrows(IOException.class, () -> Packet.fromBytes(bytes), "bit " + bit);
+        }
+    }
+
+    @Test
+    void rewrittenPeerKeepsTheChecksumValid() throws IOException {
+        Packet.setChecksumEnabled(true);
+        byte[] bytes = createPacket().toBytes();
+        InetSocketAddress peer = new InetSocketAddress(InetAddress.getByName("10.0.0.7"), 41234);
+        Packet.writePeer(bytes, peer);
+
+        Packet packet = Packet.fromBytes(bytes);
+        assertEquals(peer.getAddress(), packet.getPeerAddress());
+        assertEquals(peer.getPort(), packet.getPeerPort());
+        assertArrayEquals(PAYLOAD, packet.getPayload());
+    }
+
+    @Test
+    void truncatedPacketIsRejected() {
+        assertThrows(IOException.class, () -> Packet.fromBytes(new byte[Packet.MIN_LEN - 1]));
+    }
+}
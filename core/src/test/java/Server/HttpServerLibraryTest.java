@@ -0,0 +1,115 @@
+package Server;
+
+import Helpers.HTTPMethod;
+import Helpers.Status;
+import Server.Responses.Response;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HttpServerLibraryTest {
+    private static final String ENTITY_TAG = "3e8-18c5a0b2f40";
+    // Thu, 14 Dec 2023 10:15:30 GMT and a few milliseconds
+    private static final long LAST_MODIFIED = 1702548930123L;
+
+    private static Response requestWith(String... headers) {
+        return new Response(HTTPMethod.GET, Status.OK, Arrays.asList(headers), "", new File("file.txt"));
+    }
+
+    // ---- Ranges ----
+
+    @Test
+    void rangeIsReadAsItsFirstAndLastBytes() {
+        List<long[]> ranges = HttpServerLibrary.parseRanges("bytes=0-99", 1000);
+
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new long[]{0, 99}, ranges.get(0));
+    }
+
+    @Test
+    void openAndSuffixRangesEndWithTheFile() {
+        assertArrayEquals(new long[]{900, 999}, HttpServerLibrary.parseRanges("bytes=900-", 1000).get(0));
+        assertArrayEquals(new long[]{900, 999}, HttpServerLibrary.parseRanges("bytes=-100", 1000).get(0));
+        assertArrayEquals(new long[]{0, 999}, HttpServerLibrary.parseRanges("bytes=-5000", 1000).get(0));
+        assertArrayEquals(new long[]{950, 999}, HttpServerLibrary.parseRanges("bytes=950-2000", 1000).get(0));
+    }
+
+    @Test
+    void everyRangeOfAMultipartRangeIsKept() {
+        List<long[]> ranges = HttpServerLibrary.parseRanges("bytes=0-9, 20-29,-5", 1000);
+
+        assertEquals(3, ranges.size());
+        assertArrayEquals(new long[]{20, 29}, ranges.get(1));
+        assertArrayEquals(new long[]{995, 999}, ranges.get(2));
+    }
+
+    @Test
+    void rangesPastTheEndAreNotSatisfiable() {
+        // An empty list is answered with 416 Range Not Satisfiable
+        assertTrue(HttpServerLibrary.parseRanges("bytes=1000-", 1000).isEmpty());
+        assertTrue(HttpServerLibrary.parseRanges("bytes=0-99", 0).isEmpty());
+        assertTrue(HttpServerLibrary.parseRanges("bytes=-0", 1000).isEmpty());
+    }
+
+    @Test
+    void invalidRangesAreIgnored() {
+        // null is answered with the whole file
+        assertNull(HttpServerLibrary.parseRanges("items=0-99", 1000));
+        assertNull(HttpServerLibrary.parseRanges("bytes=99-0", 1000));
+        assertNull(HttpServerLibrary.parseRanges("bytes=a-b", 1000));
+        assertNull(HttpServerLibrary.parseRanges("bytes=100", 1000));
+        assertNull(HttpServerLibrary.parseRanges("bytes=" + "0-0,".repeat(17), 1000));
+    }
+
+    // ---- Conditions ----
+
+    @Test
+    void matchingEntityTagIsNotModified() {
+        assertTrue(HttpServerLibrary.isNotModified(requestWith("If-None-Match: \"" + ENTITY_TAG + "\""), ENTITY_TAG, LAST_MODIFIED));
+        assertTrue(HttpServerLibrary.isNotModified(requestWith("If-None-Match: W/\"" + ENTITY_TAG + "\""), ENTITY_TAG, LAST_MODIFIED));
+        assertTrue(HttpServerLibrary.isNotModified(requestWith("If-None-Match: \"other\", \"" + ENTITY_TAG + "\""), ENTITY_TAG, LAST_MODIFIED));
+        assertTrue(HttpServerLibrary.isNotModified(requestWith("If-None-Match: *"), ENTITY_TAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void otherEntityTagIsModified() {
+        assertFalse(HttpServerLibrary.isNotModified(requestWith("If-None-Match: \"other\""), ENTITY_TAG, LAST_MODIFIED));
+        // The tag has to keep its quotes
+        assertFalse(HttpServerLibrary.isNotModified(requestWith("If-None-Match: " + ENTITY_TAG), ENTITY_TAG, LAST_MODIFIED));
+        assertFalse(HttpServerLibrary.isNotModified(requestWith(), ENTITY_TAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void entityTagTakesPrecedenceOverTheDate() {
+        Response response = requestWith("If-None-Match: \"other\"", "If-Modified-Since: Thu, 14 Dec 2023 10:15:30 GMT");
+
+        assertFalse(HttpServerLibrary.isNotModified(response, ENTITY_TAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void dateIsComparedInSeconds() {
+        assertTrue(HttpServerLibrary.isNotModified(requestWith("If-Modified-Since: Thu, 14 Dec 2023 10:15:30 GMT"), ENTITY_TAG, LAST_MODIFIED));
+        assertFalse(HttpServerLibrary.isNotModified(requestWith("If-Modified-Since: Thu, 14 Dec 2023 10:15:29 GMT"), ENTITY_TAG, LAST_MODIFIED));
+        assertFalse(HttpServerLibrary.isNotModified(requestWith("If-Modified-Since: yesterday"), ENTITY_TAG, LAST_MODIFIED));
+    }
+
+    @Test
+    void rangeIsOnlySentForTheSameVersion() {
+        assertTrue(HttpServerLibrary.isRangeCurrent(requestWith(), ENTITY_TAG, LAST_MODIFIED));
+        assertTrue(HttpServerLibrary.isRangeCurrent(requestWith("If-Range: \"" + ENTITY_TAG + "\""), ENTITY_TAG, LAST_MODIFIED));
+        assertTrue(HttpServerLibrary.isRangeCurrent(requestWith("If-Range: Thu, 14 Dec 2023 10:15:30 GMT"), ENTITY_TAG, LAST_MODIFIED));
+
+        assertFalse(HttpServerLibrary.isRangeCurrent(requestWith("If-Range: \"other\""), ENTITY_TAG, LAST_MODIFIED));
+        // A weak tag cannot vouch for the bytes of a range
+        assertFalse(HttpServerLibrary.isRangeCurrent(requestWith("If-Range: W/\"" + ENTITY_TAG + "\""), ENTITY_TAG, LAST_MODIFIED));
+        assertFalse(HttpServerLibrary.isRangeCurrent(requestWith("If-Range: Thu, 14 Dec 2023 10:15:31 GMT"), ENTITY_TAG, LAST_MODIFIED));
+    }
+}
@@ -0,0 +1,78 @@
+package Server.Responses;
+
+import Helpers.HTTPMethod;
+import Helpers.Status;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseTest {
+    private static final String EOL = "\r\n";
+
+    @TempDir
+    Path directory;
+
+    private static byte[] write(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] getBody(byte[] message) {
+        int headLength = new String(message, ISO_8859_1).indexOf(EOL + EOL) + (EOL + EOL).length();
+        return Arrays.copyOfRange(message, headLength, message.length);
+    }
+
+    private static String getHead(byte[] message) {
+        String text = new String(message, ISO_8859_1);
+        return text.substring(0, text.indexOf(EOL + EOL) + EOL.length());
+    }
+
+    private Response createResponse(List<String> headers, byte[] body) throws IOException {
+        File file = Files.write(directory.resolve("file.bin"), body).toFile();
+        Response response = new Response(HTTPMethod.GET, Status.OK, headers, "", file);
+        response.setBody(body);
+        response.setValidators("3-18c5a0b2f40", 1702548930123L);
+        return response;
+    }
+
+    @Test
+    void bodyOfAFileIsSentAsItsBytes() throws IOException {
+        // Not text, with line ends and trailing white space that a text body would lose
+        byte[] body = {'a', '\r', '\n', (byte) 0xff, 0, '\n', ' '};
+        byte[] message = write(createResponse(Collections.emptyList(), body));
+
+        assertArrayEquals(body, getBody(message));
+        assertTrue(getHead(message).contains("Content-Length: " + body.length + EOL), getHead(message));
+    }
+
+    @Test
+    void bodyOfAFileHasAStrongTag() throws IOException {
+        byte[] message = write(createResponse(Collections.emptyList(), new byte[]{1, 2, 3}));
+
+        assertTrue(getHead(message).contains("ETag: \"3-18c5a0b2f40\"" + EOL), getHead(message));
+    }
+
+    @Test
+    void rangeOfAFileHasTheSameTagAsTheWholeFile() throws IOException {
+        Response response = createResponse(Collections.emptyList(), new byte[]{2});
+        response.setStatus(Status.PARTIAL_CONTENT);
+        response.addServerHeader("Content-Range: bytes 1-1/3");
+        byte[] message = write(response);
+
+        assertArrayEquals(new byte[]{2}, getBody(message));
+        assertTrue(getHead(message).contains("ETag: \"3-18c5a0b2f40\"" + EOL), getHead(message));
+    }
+}
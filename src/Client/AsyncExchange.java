@@ -0,0 +1,386 @@
+package Client;
+
+import Client.Requests.Request;
+import Helpers.DatagramBatch;
+import Helpers.Events.ConnectionClosedEvent;
+import Helpers.Events.HandshakeEvent;
+import Helpers.Latency;
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.UDPConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class is one request and its response inside a ClientEventLoop.
+ * It goes through the same steps as HttpExchange but reacts to one packet at a time instead of blocking,
+ * and all its methods, timers included, run on the thread of the loop. The response is read and handed to the
+ * body handler on the executor of the client, outside of the loop, and then completes the future.
+ * With a streaming body handler the future completes as soon as the head is read, and the body is written to the sink
+ * packet by packet as it arrives in order. The receive window advertised to the server is what the application
+ * left room for in the sink, and it is advertised again as soon as the application took more.
+ * With a timeout, the exchange fails when its response is not there in time, the head of a streamed one.
+ */
+class AsyncExchange<T> {
+    private enum State { HANDSHAKE, SENDING_REQUEST, CLOSING_REQUEST, RECEIVING_RESPONSE, DONE }
+
+    private final static String EOL = "\r\n";
+    // What a streamed body can hold that the application has not taken yet
+    private final static int RECEIVE_BUFFER_SIZE = 16 * UDPConnection.MAX_PAYLOAD_SIZE;
+
+    private ClientEventLoop loop;
+    private Executor executor;
+    private Request request;
+    private SocketAddress routerAddress;
+    private List<String> extraHeaders;
+    private BodyHandler<T> bodyHandler;
+    private Duration timeout;
+    private final CompletableFuture<HttpResponse<T>> response = new CompletableFuture<>();
+
+    private DatagramChannel channel;
+    private SelectionKey key;
+    private DatagramBatch batch;
+    private UDPConnection connection;
+    private State state = State.HANDSHAKE;
+
+    private int initialSequenceNumber;
+    private int finalSequenceNumber;
+    private long handshakeStartTime;
+    private HandshakeEvent handshakeEvent;
+    private long requestStartTime;
+    private long bytesSent = 0;
+    private int retransmissions = 0;
+
+    // Streaming: the packets in order until the head is read, then the sink of the body once it streams
+    private ArrayList<Packet> packetsInOrder = new ArrayList<>();
+    private String responseHead;
+    private BodyHandler.BodySink<T> sink;
+    private final AtomicBoolean isWindowUpdatePending = new AtomicBoolean(false);
+
+    private static final Logger logger = Logger.getLogger(HttpExchange.class.getName());
+
+    /**
+     * Sends the request through the router at routerAddress, or directly to the server when routerAddress is null.
+     * The timeout is null when the exchange waits for as long as the server answers.
+     */
+    AsyncExchange(ClientEventLoop loop, Executor executor, Request request, SocketAddress routerAddress, List<String> extraHeaders,
+                  BodyHandler<T> bodyHandler, Duration timeout) {
+        this.loop = loop;
+        this.executor = executor;
+        this.request = request;
+        this.routerAddress = routerAddress;
+        this.extraHeaders = extraHeaders;
+        this.bodyHandler = bodyHandler;
+        this.timeout = timeout;
+
+        // A compressed body could only be decompressed once whole
+        if (bodyHandler.isStreaming() && !hasHeader(request, "Accept-Encoding")) {
+            this.extraHeaders = new ArrayList<>(extraHeaders);
+            this.extraHeaders.add("Accept-Encoding: identity");
+        }
+    }
+
+    CompletableFuture<HttpResponse<T>> getResponse() {
+        return response;
+    }
+
+    // Opens the channel of the exchange and sends the SYN
+    void start(Selector selector) {
+        try {
+            channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(null);
+            batch = new DatagramBatch(channel, routerAddress == null);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+
+        connection = new UDPConnection(batch, loop);
+        connection.setRouterAddress(routerAddress);
+        connection.setTimeoutListener(() -> fail(new SocketTimeoutException("The server " + request.getHost() + " stopped answering")));
+        if (bodyHandler.isStreaming())
+            connection.setPacketConsumer(this::receiveInOrder);
+        if (timeout != null)
+            connection.startTimer(this::timeOutRequest, timeout.toNanos());
+
+        initialSequenceNumber = UDPConnection.getRandomSequenceNumber();
+        handshakeStartTime = System.nanoTime();
+        handshakeEvent = HandshakeEvent.start("client");
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Send SYN packet with seq number " + initialSequenceNumber);
+        connection.sendSYN(initialSequenceNumber, request.getPort(), request.getAddress());
+
+        // Start a timer
+        connection.startTimer(new ResendSyn(0));
+    }
+
+    void receivePackets() {
+        try {
+            for (Packet packet : batch.receiveAll())
+                receivePacket(packet);
+        } catch (IOException | RuntimeException e) {
+            // A failing exchange must not stop the loop and the other exchanges it drives
+            fail(e);
+        }
+    }
+
+    private void receivePacket(Packet packet) {
+        switch (state) {
+            case HANDSHAKE:
+                if (packet.getType() == PacketType.SYN_ACK.value)
+                    receiveSYN_ACK(packet);
+                break;
+            case SENDING_REQUEST:
+                if (packet.getType() == PacketType.ACK.value) {
+                    connection.receiveACK(packet);
+                    if (connection.isEverythingAcknowledged()) {
+                        finalSequenceNumber = connection.sendFinalFIN();
+                        state = State.CLOSING_REQUEST;
+                    } else
+                        connection.sendWindow();
+                }
+                break;
+            case CLOSING_REQUEST:
+                if (connection.receiveFinalACK(packet, finalSequenceNumber)) {
+                    logger.log(Level.INFO, "Receiving packets from server...");
+                    state = State.RECEIVING_RESPONSE;
+                }
+                break;
+            case RECEIVING_RESPONSE:
+                if (packet.getType() == PacketType.DATA.value)
+                    connection.receiveData(packet);
+                else if (packet.getType() == PacketType.FIN.value) {
+                    ArrayList<Packet> finalPacketsInOrder = connection.receiveFIN(packet);
+                    complete(bodyHandler.isStreaming() ? packetsInOrder : finalPacketsInOrder);
+                }
+                break;
+            case DONE:
+                break;
+        }
+    }
+
+    private void receiveSYN_ACK(Packet packetSYNACK) {
+        logger.info("Received a SYN_ACK packet");
+        int receivedAcknowledgment = ByteBuffer.wrap(packetSYNACK.getPayload()).getInt();
+        if (receivedAcknowledgment != initialSequenceNumber + 1) {
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Unexpected ACK sequence number " + receivedAcknowledgment + "instead of " + (initialSequenceNumber + 1));
+            connection.sendNAK(packetSYNACK.getPeerPort(), packetSYNACK.getPeerAddress());
+        }
+
+        // Send ACK
+        connection.sendACK(packetSYNACK.getSequenceNumber() + 1, packetSYNACK.getPeerPort(), packetSYNACK.getPeerAddress());
+        Latency.HANDSHAKE.recordSince(handshakeStartTime);
+        handshakeEvent.complete(packetSYNACK.getPeerAddress(), packetSYNACK.getPeerPort());
+
+        String payload = HttpExchange.constructPayload(request, extraHeaders);
+        ArrayList<Packet> packets = UDPConnection.buildPackets(payload, PacketType.DATA, request.getPort(), request.getAddress());
+        bytesSent += payload.getBytes().length;
+
+        logger.log(Level.INFO, "Sending packets to server using selective repeat...");
+        requestStartTime = System.nanoTime();
+        state = State.SENDING_REQUEST;
+        connection.startSelectiveRepeat(packets, request.getPort(), request.getAddress());
+    }
+
+    // Only with a streaming body handler: every DATA packet of the response as soon as it is in order
+    private void receiveInOrder(Packet packet) {
+        if (state == State.DONE)
+            return;
+
+        if (sink != null) {
+            writeToSink(ByteBuffer.wrap(packet.getPayload()));
+            return;
+        }
+
+        packetsInOrder.add(packet);
+        if (responseHead != null)
+            return;
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (Packet packetInOrder : packetsInOrder)
+            received.writeBytes(packetInOrder.getPayload());
+        byte[] bytes = received.toByteArray();
+        // One char per byte, so that the index in the text is the index in the bytes
+        int headLength = new String(bytes, ISO_8859_1).indexOf(EOL + EOL);
+        if (headLength < 0)
+            return;
+
+        headLength += (EOL + EOL).length();
+        responseHead = new String(bytes, 0, headLength, UTF_8);
+        // An encoded body is read once whole like any other
+        if (HttpResponse.getHeaderValue(responseHead, "Content-Encoding") != null)
+            return;
+
+        try {
+            sink = bodyHandler.open();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        packetsInOrder = null;
+        connection.setReceiveWindow(this::getReceiveWindow);
+        sink.whenConsumed(() -> {
+            if (isWindowUpdatePending.compareAndSet(false, true))
+                loop.execute(this::updateReceiveWindow);
+        });
+        writeToSink(ByteBuffer.wrap(bytes, headLength, bytes.length - headLength));
+
+        // The statistics of a streamed response are the ones of when its head was read
+        HttpResponse<T> streamedResponse = new HttpResponse<>(responseHead, sink.getBody(), bytesSent,
+                connection.getBytesReceived(), retransmissions + connection.getRetransmissions());
+        completeOnExecutor(() -> response.complete(streamedResponse));
+    }
+
+    private void writeToSink(ByteBuffer bytes) {
+        try {
+            sink.write(bytes);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    // Runs on the loop once the application took bytes from the sink, which may have opened the receive window
+    private void updateReceiveWindow() {
+        isWindowUpdatePending.set(false);
+        if (state == State.RECEIVING_RESPONSE)
+            connection.updateReceiveWindow();
+    }
+
+    // A streamed body that the application is behind on takes room in the receive window
+    private int getReceiveWindow() {
+        long room = RECEIVE_BUFFER_SIZE - sink.getBufferedBytes();
+        return (int) Math.max(0, Math.min(connection.getWindowSize(), room / UDPConnection.MAX_PAYLOAD_SIZE));
+    }
+
+    private static boolean hasHeader(Request request, String name) {
+        for (String header : request.getHeaders())
+            if (header.toLowerCase().startsWith(name.toLowerCase() + ":"))
+                return true;
+        return false;
+    }
+
+    // Sends what the pass produced, the loop also waits for the channel to be writable if it is full
+    void flush() {
+        boolean isEverythingSent = batch.flush();
+        key.interestOps(isEverythingSent ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void complete(ArrayList<Packet> finalPacketsInOrder) {
+        if (connection.getFirstDataReceivedTime() != 0)
+            Latency.TIME_TO_FIRST_BYTE.record(connection.getFirstDataReceivedTime() - requestStartTime);
+
+        // The ACK of the FIN of the server goes out before the channel is closed
+        flush();
+        close();
+        if (sink != null) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                sink.abort();
+            }
+            return;
+        }
+
+        // Decompressing the body and writing it to a file would hold up every other exchange of the loop
+        int retransmissions = this.retransmissions;
+        completeOnExecutor(() -> {
+            try {
+                response.complete(HttpExchange.readResponse(finalPacketsInOrder, bodyHandler, bytesSent, retransmissions));
+            } catch (IOException | RuntimeException e) {
+                response.completeExceptionally(e);
+            }
+        });
+    }
+
+    // The future is completed off the loop, so that what the application chained to it does not run on the loop either
+    private void completeOnExecutor(Runnable completion) {
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            response.completeExceptionally(new IOException("The client was closed"));
+        }
+    }
+
+    // Runs on the loop once the timeout of the request is over
+    private void timeOutRequest() {
+        if (!response.isDone())
+            fail(new SocketTimeoutException("The request to " + request.getHost() + " timed out after " + timeout.toMillis() + "ms"));
+    }
+
+    // Also called by the loop when it is closed
+    void fail(Throwable exception) {
+        if (state == State.DONE)
+            return;
+
+        if (logger.isLoggable(Level.INFO))
+            logger.log(Level.INFO, "Exchange with " + request.getHost() + " failed", exception);
+        close();
+        if (sink != null)
+            sink.abort();
+        response.completeExceptionally(exception);
+    }
+
+    private void close() {
+        if (state == State.DONE)
+            return;
+
+        logger.log(Level.INFO, "Client closing connection...");
+        state = State.DONE;
+        if (key != null)
+            key.cancel();
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (connection == null)
+            return;
+
+        connection.close();
+        retransmissions += connection.getRetransmissions();
+        ConnectionClosedEvent.emit("client", new InetSocketAddress(request.getAddress(), request.getPort()), connection);
+    }
+
+    private class ResendSyn extends TimerTask {
+        private int retries;
+
+        ResendSyn(int retries) {
+            this.retries = retries;
+        }
+
+        public void run() {
+            if (state == State.HANDSHAKE && connection.canRetry(retries)) {
+                retransmissions++;
+                connection.sendSYN(initialSequenceNumber, request.getPort(), request.getAddress());
+
+                // Start a timer
+                connection.startTimer(new ResendSyn(retries + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package Client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This interface decides what becomes of the body of a response. For every response it opens a sink,
+ * which is given the body decoded from its content encoding a chunk at a time, and which then returns
+ * the body that the HttpResponse carries.
+ */
+public interface BodyHandler<T> {
+
+    BodySink<T> open() throws IOException;
+
+    // A streaming handler gets the body while it is received: send and sendAsync ask for it without compression,
+    // skip the cache and return the response as soon as its head is read, with the body of the sink before it is closed
+    default boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * This interface receives the body of one response.
+     */
+    interface BodySink<T> {
+        // The buffer is only valid during the call
+        void write(ByteBuffer bytes) throws IOException;
+
+        T close() throws IOException;
+
+        // The body could not be read to its end, close() will not be called
+        default void abort() {
+        }
+
+        // The body of a streaming sink, available before the sink is closed
+        default T getBody() {
+            return null;
+        }
+
+        // Bytes written that the application has not taken yet, the receive window shrinks by as much
+        default long getBufferedBytes() {
+            return 0;
+        }
+
+        // Runs the listener each time the application took buffered bytes, on the thread that took them
+        default void whenConsumed(Runnable listener) {
+        }
+    }
+
+    static BodyHandler<byte[]> ofByteArray() {
+        return () -> new BodySink<>() {
+            private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+            @Override
+            public void write(ByteBuffer bytes) {
+                body.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            }
+
+            @Override
+            public byte[] close() {
+                return body.toByteArray();
+            }
+        };
+    }
+
+    static BodyHandler<String> ofString() {
+        return () -> {
+            BodySink<byte[]> bytes = ofByteArray().open();
+            return new BodySink<>() {
+                @Override
+                public void write(ByteBuffer chunk) throws IOException {
+                    bytes.write(chunk);
+                }
+
+                @Override
+                public String close() throws IOException {
+                    return new String(bytes.close(), UTF_8);
+                }
+            };
+        };
+    }
+
+    /**
+     * Writes the body to the given file, which is created or truncated, and returns the file.
+     */
+    static BodyHandler<Path> ofFile(Path file) {
+        return () -> {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            return new BodySink<>() {
+                @Override
+                public void write(ByteBuffer bytes) throws IOException {
+                    while (bytes.hasRemaining())
+                        channel.write(bytes);
+                }
+
+                @Override
+                public Path close() throws IOException {
+                    channel.close();
+                    return file;
+                }
+
+                @Override
+                public void abort() {
+                    try {
+                        channel.close();
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        };
+    }
+
+    /**
+     * Hands every chunk of the body to the given sink, which must copy what it keeps.
+     */
+    static BodyHandler<Void> ofByteSink(Consumer<ByteBuffer> sink) {
+        return () -> new BodySink<>() {
+            @Override
+            public void write(ByteBuffer bytes) {
+                sink.accept(bytes);
+            }
+
+            @Override
+            public Void close() {
+                return null;
+            }
+        };
+    }
+
+    static BodyHandler<Void> discarding() {
+        return ofByteSink(bytes -> { });
+    }
+
+    /**
+     * Streams the body to a single subscriber, with backpressure: while the subscriber does not request more,
+     * the body is no longer received past a few packets. This holds with send as well as sendAsync, and with a response
+     * cache, which the request goes around. A body the server compressed anyway is only streamed once received whole.
+     */
+    static BodyHandler<Flow.Publisher<ByteBuffer>> ofPublisher() {
+        return new BodyHandler<>() {
+            @Override
+            public BodySink<Flow.Publisher<ByteBuffer>> open() {
+                return new BodyPublisher();
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+package Client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is the body of a response as a Flow.Publisher, for a single subscriber.
+ * The exchange writes the chunks while the response is received, and they wait in the queue until the subscriber
+ * requests them. They are handed over on the common pool, one signal at a time, never on the thread of the exchange.
+ */
+class BodyPublisher implements Flow.Publisher<ByteBuffer>, BodyHandler.BodySink<Flow.Publisher<ByteBuffer>> {
+    private final Queue<ByteBuffer> chunks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicReference<Flow.Subscriber<? super ByteBuffer>> subscriber = new AtomicReference<>();
+    // How many times delivery was asked for while it was running, it runs again until it caught up
+    private final AtomicInteger pendingDeliveries = new AtomicInteger();
+
+    private volatile boolean isComplete = false;
+    private volatile boolean isCancelled = false;
+    private volatile Throwable error;
+    private volatile Runnable consumedListener = () -> { };
+    // Only touched by the delivery, which never runs twice at once
+    private boolean isTerminated = false;
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (!this.subscriber.compareAndSet(null, subscriber)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) { }
+                public void cancel() { }
+            });
+            subscriber.onError(new IllegalStateException("The body of a response can only be subscribed to once"));
+            return;
+        }
+
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0)
+                    error = new IllegalArgumentException("Requested " + n + " chunks, it has to be more than 0");
+                else
+                    demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+                deliver();
+            }
+
+            @Override
+            public void cancel() {
+                isCancelled = true;
+                deliver();
+            }
+        });
+        deliver();
+    }
+
+    @Override
+    public void write(ByteBuffer bytes) {
+        ByteBuffer chunk = ByteBuffer.allocate(bytes.remaining()).put(bytes).flip();
+        if (isCancelled)
+            return;
+
+        bufferedBytes.addAndGet(chunk.remaining());
+        chunks.add(chunk);
+        deliver();
+    }
+
+    @Override
+    public Flow.Publisher<ByteBuffer> close() {
+        isComplete = true;
+        deliver();
+        return this;
+    }
+
+    @Override
+    public void abort() {
+        error = new IOException("The body of the response could not be read to its end");
+        deliver();
+    }
+
+    @Override
+    public Flow.Publisher<ByteBuffer> getBody() {
+        return this;
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    @Override
+    public void whenConsumed(Runnable listener) {
+        this.consumedListener = listener;
+    }
+
+    private void deliver() {
+        if (pendingDeliveries.getAndIncrement() == 0)
+            ForkJoinPool.commonPool().execute(this::runDelivery);
+    }
+
+    private void runDelivery() {
+        int deliveries = pendingDeliveries.get();
+        while (true) {
+            Flow.Subscriber<? super ByteBuffer> subscriber = this.subscriber.get();
+            if (subscriber != null && !isTerminated) {
+                if (isCancelled) {
+                    // What was not taken no longer takes room in the receive window
+                    isTerminated = true;
+                    chunks.clear();
+                    bufferedBytes.set(0);
+                    consumedListener.run();
+                } else
+                    deliverTo(subscriber);
+            }
+
+            deliveries = pendingDeliveries.addAndGet(-deliveries);
+            if (deliveries == 0)
+                return;
+        }
+    }
+
+    private void deliverTo(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        ByteBuffer chunk;
+        while (error == null && demand.get() > 0 && (chunk = chunks.poll()) != null) {
+            bufferedBytes.addAndGet(-chunk.remaining());
+            demand.decrementAndGet();
+            subscriber.onNext(chunk);
+            consumedListener.run();
+        }
+
+        if (error != null) {
+            isTerminated = true;
+            chunks.clear();
+            bufferedBytes.set(0);
+            subscriber.onError(error);
+        } else if (isComplete && chunks.isEmpty()) {
+            isTerminated = true;
+            subscriber.onComplete();
+        }
+    }
+}
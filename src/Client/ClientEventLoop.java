@@ -0,0 +1,113 @@
+package Client;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is the transport engine behind HttpClient.sendAsync: a single thread with a Selector that drives
+ * every exchange sent asynchronously by a client. Each exchange still has a channel of its own, since the server tells
+ * connections apart by the address of the client, but no thread: the loop reads the channels that are ready,
+ * feeds their packets to their exchanges and runs their timers, so their state is only ever touched by the loop's thread.
+ * Once closed, the loop fails the exchanges it still drives and its thread stops.
+ */
+class ClientEventLoop implements Runnable, Executor {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean isClosed = false;
+
+    private static final Logger logger = Logger.getLogger(ClientEventLoop.class.getName());
+
+    ClientEventLoop() throws IOException {
+        this.selector = Selector.open();
+
+        Thread thread = new Thread(this, "HttpClient-loop");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts the exchange on the loop's thread, or fails it when the loop is closed.
+     */
+    void register(AsyncExchange<?> exchange) {
+        synchronized (this) {
+            if (!isClosed) {
+                execute(() -> exchange.start(selector));
+                return;
+            }
+        }
+        exchange.fail(closedException());
+    }
+
+    /**
+     * Stops the loop. The exchanges registered before fail, on the loop's thread, and the selector is closed.
+     */
+    synchronized void close() {
+        isClosed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the task on this loop's thread. It is the only way other threads (timers, senders) reach its exchanges.
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (!isClosed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Client event loop could not select its channels", e);
+            }
+
+            for (SelectionKey key : selector.selectedKeys())
+                ((AsyncExchange<?>) key.attachment()).receivePackets();
+            selector.selectedKeys().clear();
+
+            runTasks();
+            flush();
+        }
+
+        // Every exchange registered before the loop was closed is started by now, and fails with the loop
+        runTasks();
+        for (SelectionKey key : selector.keys())
+            ((AsyncExchange<?>) key.attachment()).fail(closedException());
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static IOException closedException() {
+        return new IOException("The client was closed");
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Client event loop task failed", e);
+            }
+        }
+    }
+
+    // Everything the pass produced goes out together, each exchange on its own channel
+    private void flush() {
+        for (SelectionKey key : selector.keys())
+            if (key.isValid())
+                ((AsyncExchange<?>) key.attachment()).flush();
+    }
+}
@@ -1,14 +1,23 @@
 package Client;
 
+import Helpers.Capture;
 import Helpers.HTTPMethod;
 import Helpers.HelpMessage;
+import Helpers.Latency;
+import Helpers.Packet;
+import Helpers.Trace;
+import Helpers.UDPConnection;
 import Client.Requests.GetRequest;
 import Client.Requests.PostRequest;
 import Client.Requests.Request;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.SocketAddress;
 import java.net.URL;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,14 +33,77 @@ public class HttpCli {
     private static String data = "";
     private static int currentIndex = 0;
     private static int port = -1;
+    private static boolean isPacingEnabled = false;
+    private static boolean isChecksumEnabled = false;
+    private static String routerHost = "localhost";
+    private static int routerPort = 3000;
+    private static boolean isDirect = false;
+    private static URL url;
+    private static String latencyFormat;
+    private static String traceFile;
+    private static String captureFile;
+    private static int segments = 1;
+    private static String cacheDirectory;
+
+    // httpc bench
+    private static boolean isBenchmark = false;
+    private static int clients = 10;
+    private static int requests = 1000;
+    private static long durationInSeconds = 0;
+    private static double postRatio = 0;
 
     public static void main(String[] args) {
         Request request = constructRequestFromArgs(args);
         if (request == null) showErrorAndExit("Request is null.");
-        if (responseFilePath.isEmpty())
-            new HttpClientLibrary(request, isVerbose);
+        UDPConnection.setPacingEnabled(isPacingEnabled);
+        Packet.setChecksumEnabled(isChecksumEnabled);
+        SocketAddress routerAddress = isDirect ? null : new InetSocketAddress(routerHost, routerPort);
+        if (traceFile != null)
+            startTrace();
+        if (captureFile != null)
+            startCapture();
+        int status = 0;
+        if (segments > 1) {
+            try {
+                new SegmentedDownload((GetRequest) request, segments, responseFilePath, routerAddress, isVerbose).run();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+                status = 1;
+            }
+        } else if (isBenchmark)
+            new LoadGenerator(request, createRequest(HTTPMethod.POST), postRatio, clients, requests, durationInSeconds, routerAddress, isVerbose).run();
         else
-            new HttpClientLibrary(request, isVerbose, responseFilePath);
+            new HttpClientLibrary(request, isVerbose, responseFilePath, routerAddress, cacheDirectory != null ? openCache() : null);
+        if (latencyFormat != null)
+            System.out.println(Latency.export(latencyFormat));
+        Trace.stop();
+        Capture.stop();
+        System.exit(status);
+    }
+
+    private static void startTrace() {
+        try {
+            Trace.start(Paths.get(traceFile));
+        } catch (IOException | InvalidPathException e) {
+            showErrorAndExit(HelpMessage.INVALID_TRACE_FILE.getMessage());
+        }
+    }
+
+    private static void startCapture() {
+        try {
+            Capture.start(Paths.get(captureFile));
+        } catch (IOException | InvalidPathException e) {
+            showErrorAndExit(HelpMessage.INVALID_CAPTURE_FILE.getMessage());
+        }
+    }
+
+    private static ResponseCache openCache() {
+        try {
+            return new ResponseCache(Paths.get(cacheDirectory));
+        } catch (IOException | InvalidPathException e) {
+            showErrorAndExit(HelpMessage.INVALID_CACHE_DIRECTORY.getMessage());
+            return null;
+        }
     }
 
     // Parse the arguments given and create a request from them
@@ -42,10 +114,10 @@ public class HttpCli {
         currentIndex++;
         parseOptions(args);
         if (currentIndex != args.length - 1) showErrorAndExit("URL is missing.");
+        if (segments > 1 && responseFilePath.isEmpty()) showErrorAndExit("Option --segments needs an output file given with -o.");
 
         // Create URL object
         String urlString = cleanUpUrl(args[currentIndex]);
-        URL url = null;
         try {
             url = new URL(urlString);
         } catch (MalformedURLException e) {
@@ -53,7 +125,11 @@ public class HttpCli {
             System.exit(0);
         }
 
-        // Create Request object
+        return createRequest(httpMethod);
+    }
+
+    // Create Request object
+    private static Request createRequest(HTTPMethod httpMethod) {
         Request request = null;
         switch (httpMethod) {
             case GET:
@@ -81,6 +157,11 @@ public class HttpCli {
             case "post":
                 httpMethod = HTTPMethod.POST;
                 break;
+            case "bench":
+                // The benchmark mixes GET and POST requests, GET being the main one
+                isBenchmark = true;
+                httpMethod = HTTPMethod.GET;
+                break;
             default:
                 showErrorAndExit(HelpMessage.INCORRECT_PARAM_HTTPC.getMessage());
         }
@@ -99,8 +180,11 @@ public class HttpCli {
                 case "post":
                     System.out.print(HelpMessage.POST.getMessage());
                     break;
+                case "bench":
+                    System.out.print(HelpMessage.BENCH.getMessage());
+                    break;
                 default:
-                    showErrorAndExit("Incorrect parameters. The following are supported: help get, help post.");
+                    showErrorAndExit("Incorrect parameters. The following are supported: help get, help post, help bench.");
             }
         } else
             showErrorAndExit(HelpMessage.INCORRECT_PARAM_HTTPC.getMessage());
@@ -121,7 +205,7 @@ public class HttpCli {
                         break;
                     }
                 case "-d":
-                    if (httpMethod == HTTPMethod.GET)
+                    if (httpMethod == HTTPMethod.GET && !isBenchmark)
                         showErrorAndExit("Cannot use -d option in a GET request.");
 
                     // Check for exclusivity (either -d or -f)
@@ -136,7 +220,7 @@ public class HttpCli {
                         break;
                     }
                 case "-f":
-                    if (httpMethod == HTTPMethod.GET)
+                    if (httpMethod == HTTPMethod.GET && !isBenchmark)
                         showErrorAndExit("Cannot use -f option in a GET request.");
 
                     // Check for exclusivity (either -d or -f)
@@ -158,13 +242,86 @@ public class HttpCli {
                     if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
                         port = Integer.valueOf(args[currentIndex]);
                     break;
+                case "--pacing":
+                    isPacingEnabled = true;
+                    break;
+                case "--checksum":
+                    isChecksumEnabled = true;
+                    break;
+                case "--router-host":
+                    currentIndex++;
+                    routerHost = getOptionValue(args);
+                    break;
+                case "--router-port":
+                    if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
+                        routerPort = Integer.valueOf(args[currentIndex]);
+                    break;
+                case "--direct":
+                    isDirect = true;
+                    break;
+                case "--latencies":
+                    if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
+                        latencyFormat = args[currentIndex];
+                    if (latencyFormat == null || Latency.export(latencyFormat) == null)
+                        showErrorAndExit(HelpMessage.INVALID_LATENCY_FORMAT.getMessage());
+                    break;
+                case "--trace":
+                    currentIndex++;
+                    traceFile = getOptionValue(args);
+                    break;
+                case "--capture":
+                    currentIndex++;
+                    captureFile = getOptionValue(args);
+                    break;
+                case "--segments":
+                    if (httpMethod != HTTPMethod.GET || isBenchmark)
+                        showErrorAndExit("Option --segments can only be used with httpc get.");
+                    if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
+                        segments = Integer.valueOf(args[currentIndex]);
+                    if (segments < 1)
+                        showErrorAndExit("The number of segments must be at least 1.");
+                    break;
+                case "--cache":
+                    if (httpMethod != HTTPMethod.GET || isBenchmark)
+                        showErrorAndExit("Option --cache can only be used with httpc get.");
+                    currentIndex++;
+                    cacheDirectory = getOptionValue(args);
+                    break;
+                case "-c":
+                    checkBenchmarkOption(args[currentIndex]);
+                    if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
+                        clients = Integer.valueOf(args[currentIndex]);
+                    break;
+                case "-n":
+                    checkBenchmarkOption(args[currentIndex]);
+                    if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
+                        requests = Integer.valueOf(args[currentIndex]);
+                    break;
+                case "-t":
+                    checkBenchmarkOption(args[currentIndex]);
+                    if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
+                        durationInSeconds = Long.valueOf(args[currentIndex]);
+                    break;
+                case "--post-ratio":
+                    checkBenchmarkOption(args[currentIndex]);
+                    if (currentIndex++ < args.length && !args[currentIndex].startsWith("-"))
+                        postRatio = Double.valueOf(args[currentIndex]);
+                    if (postRatio < 0 || postRatio > 1)
+                        showErrorAndExit("The POST ratio must be between 0 and 1.");
+                    break;
                  default:
-                    showErrorAndExit("Option is not supported. Here's the list of supported options: -v, -d, -f, -o, -h, -p.");
+                    showErrorAndExit(HelpMessage.UNSUPPORTED_OPTION_HTTPC.getMessage());
             }
             currentIndex++;
         }
     }
 
+    // Helper method to reject the options that only make sense for httpc bench
+    private static void checkBenchmarkOption(String option) {
+        if (!isBenchmark)
+            showErrorAndExit("Option " + option + " can only be used with httpc bench.");
+    }
+
     // Helper method to determine the value for the options given the arguments.
     // The returned value will not have enclosing quotations.
     private static String getOptionValue(String[] args) {
@@ -0,0 +1,272 @@
+package Client;
+
+import Client.Requests.Redirectable;
+import Client.Requests.Request;
+import Helpers.HTTPMethod;
+import Helpers.Status;
+import Helpers.UDPConnection;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is the client. It is built once and then sends any number of requests, from any number of threads at once,
+ * and returns their responses without printing anything.
+ * Every request gets its own connection, while the router address, the response cache and the retransmission timer
+ * of UDPConnection are shared by all of them. Redirects of GET requests are followed.
+ * send blocks the calling thread for the whole exchange, while sendAsync returns at once and all the exchanges
+ * sent with it are driven by a single ClientEventLoop thread. A streaming body handler always goes through the loop,
+ * which receives the body while the application reads it, and around the cache, which would have to read it whole.
+ * A request that has a timeout fails with a SocketTimeoutException when its response is not there in time.
+ * Closing the client stops its loop, and fails the asynchronous requests that are still running.
+ */
+public class HttpClient implements AutoCloseable {
+    private final SocketAddress routerAddress;
+    private final ResponseCache responseCache;
+    private final int maxRedirects;
+    private final Duration timeout;
+    // Started with the first asynchronous request
+    private ClientEventLoop loop;
+    // Reads the responses of the loop, decompressing them and writing them to the body handlers
+    private ExecutorService executor;
+    private boolean isClosed = false;
+
+    private static final Logger logger = Logger.getLogger(HttpClient.class.getName());
+
+    private HttpClient(Builder builder) {
+        this.routerAddress = builder.routerAddress;
+        this.responseCache = builder.responseCache;
+        this.maxRedirects = builder.maxRedirects;
+        this.timeout = builder.timeout;
+    }
+
+    /**
+     * Sends the request and returns the response, after the redirects if it was redirected.
+     */
+    public HttpResponse<byte[]> send(Request request) throws IOException {
+        return send(request, BodyHandler.ofByteArray());
+    }
+
+    public <T> HttpResponse<T> send(Request request, BodyHandler<T> bodyHandler) throws IOException {
+        if (bodyHandler.isStreaming())
+            return waitFor(sendAsync(request, bodyHandler));
+
+        HttpResponse<T> response = sendOnce(request, bodyHandler);
+        for (int redirects = 0; redirects < maxRedirects && isRedirect(request, response); redirects++) {
+            request = ((Redirectable) request).getRedirectRequest(response.getHeader("Location"));
+            HttpResponse<T> redirectedResponse = sendOnce(request, bodyHandler);
+            redirectedResponse.setPreviousResponse(response);
+            response = redirectedResponse;
+        }
+
+        return response;
+    }
+
+    /**
+     * Sends the request without waiting for its response. The future completes with the response after the redirects,
+     * or exceptionally when the exchange failed.
+     */
+    public CompletableFuture<HttpResponse<byte[]>> sendAsync(Request request) {
+        return sendAsync(request, BodyHandler.ofByteArray());
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(Request request, BodyHandler<T> bodyHandler) {
+        return sendAsync(request, bodyHandler, null, 0);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendAsync(Request request, BodyHandler<T> bodyHandler,
+                                                             HttpResponse<T> previousResponse, int redirects) {
+        return sendOnceAsync(request, bodyHandler).thenCompose(response -> {
+            response.setPreviousResponse(previousResponse);
+            if (redirects >= maxRedirects || !isRedirect(request, response))
+                return CompletableFuture.completedFuture(response);
+
+            Request redirectRequest = ((Redirectable) request).getRedirectRequest(response.getHeader("Location"));
+            return sendAsync(redirectRequest, bodyHandler, response, redirects + 1);
+        });
+    }
+
+    // Waits for the response of an exchange of the loop, and throws what it failed with
+    private static <T> HttpResponse<T> waitFor(CompletableFuture<HttpResponse<T>> response) throws IOException {
+        try {
+            return response.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static boolean isRedirect(Request request, HttpResponse<?> response) {
+        int statusCode = response.getStatusCode();
+        boolean isRedirectCode = statusCode == Status.MOVED_PERMANENTLY.getCode() ||
+                statusCode == Status.FOUND.getCode() ||
+                statusCode == Status.TEMPORARY_REDIRECT.getCode();
+        return isRedirectCode && request instanceof Redirectable && response.getHeader("Location") != null;
+    }
+
+    private <T> HttpResponse<T> sendOnce(Request request, BodyHandler<T> bodyHandler) throws IOException {
+        ResponseCache.Entry cachedResponse = getCachedResponse(request, bodyHandler);
+        if (cachedResponse != null && cachedResponse.isFresh()) {
+            logger.log(Level.INFO, "Reading the response from the cache, it is still fresh...");
+            return HttpResponse.withBody(cachedResponse.getResponse(), bodyHandler);
+        }
+
+        checkOpen();
+        HttpExchange exchange = new HttpExchange(request, routerAddress, getConditionalHeaders(cachedResponse), timeout);
+        if (!isCacheable(request, bodyHandler))
+            return exchange.perform(bodyHandler);
+
+        // The body is kept in memory to be cached, and then handed to the body handler
+        return HttpResponse.withBody(cache(request, cachedResponse, exchange.perform(BodyHandler.ofByteArray())), bodyHandler);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendOnceAsync(Request request, BodyHandler<T> bodyHandler) {
+        try {
+            ResponseCache.Entry cachedResponse = getCachedResponse(request, bodyHandler);
+            if (cachedResponse != null && cachedResponse.isFresh()) {
+                logger.log(Level.INFO, "Reading the response from the cache, it is still fresh...");
+                return CompletableFuture.completedFuture(HttpResponse.withBody(cachedResponse.getResponse(), bodyHandler));
+            }
+
+            List<String> conditionalHeaders = getConditionalHeaders(cachedResponse);
+            if (!isCacheable(request, bodyHandler))
+                return exchange(request, conditionalHeaders, bodyHandler);
+
+            return exchange(request, conditionalHeaders, BodyHandler.ofByteArray()).thenApply(response -> {
+                try {
+                    return HttpResponse.withBody(cache(request, cachedResponse, response), bodyHandler);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> exchange(Request request, List<String> extraHeaders, BodyHandler<T> bodyHandler) throws IOException {
+        ClientEventLoop loop = getLoop();
+        AsyncExchange<T> exchange = new AsyncExchange<>(loop, executor, request, routerAddress, extraHeaders, bodyHandler, timeout);
+        loop.register(exchange);
+        return exchange.getResponse();
+    }
+
+    private synchronized ClientEventLoop getLoop() throws IOException {
+        checkOpen();
+        if (loop == null) {
+            loop = new ClientEventLoop();
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "HttpClient-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return loop;
+    }
+
+    private synchronized void checkOpen() throws IOException {
+        if (isClosed)
+            throw new IOException("The client was closed");
+    }
+
+    /**
+     * Stops the loop of the asynchronous requests, whose futures that are not complete yet fail, and the threads
+     * that read their responses once the responses being read are done. The requests sent after that fail at once.
+     */
+    @Override
+    public synchronized void close() {
+        isClosed = true;
+        if (loop != null) {
+            loop.close();
+            executor.shutdown();
+        }
+    }
+
+    // ---- Cache ----
+
+    // A streamed body is not held in memory, so it is neither cached nor answered from the cache
+    private boolean isCacheable(Request request, BodyHandler<?> bodyHandler) {
+        return responseCache != null && request.getMethod() == HTTPMethod.GET && !bodyHandler.isStreaming();
+    }
+
+    // The cached response is only sent again if it has changed
+    private static List<String> getConditionalHeaders(ResponseCache.Entry cachedResponse) {
+        List<String> conditionalHeaders = new ArrayList<>();
+        if (cachedResponse != null && cachedResponse.getEntityTag() != null)
+            conditionalHeaders.add("If-None-Match: " + cachedResponse.getEntityTag());
+        if (cachedResponse != null && cachedResponse.getLastModified() != null)
+            conditionalHeaders.add("If-Modified-Since: " + cachedResponse.getLastModified());
+        return conditionalHeaders;
+    }
+
+    // Stores a new response, or returns the cached one when the server answered that it has not changed
+    private HttpResponse<byte[]> cache(Request request, ResponseCache.Entry cachedResponse, HttpResponse<byte[]> response) {
+        if (response.getStatusCode() == Status.NOT_MODIFIED.getCode() && cachedResponse != null) {
+            logger.log(Level.INFO, "Response has not changed, reading it from the cache...");
+            return responseCache.revalidate(cachedResponse, response).getResponse();
+        }
+
+        if (response.getStatusCode() == Status.OK.getCode())
+            responseCache.put(request, response);
+        return response;
+    }
+
+    // The cached response to a GET, null without a cache or when the request has conditions of its own
+    private ResponseCache.Entry getCachedResponse(Request request, BodyHandler<?> bodyHandler) {
+        if (!isCacheable(request, bodyHandler))
+            return null;
+
+        for (String header : request.getHeaders()) {
+            String name = header.toLowerCase();
+            if (name.startsWith("range:") || name.startsWith("if-") || name.startsWith("cache-control:"))
+                return null;
+        }
+        return responseCache.get(request);
+    }
+
+    public static class Builder {
+        private SocketAddress routerAddress = UDPConnection.DEFAULT_ROUTER_ADDRESS;
+        private ResponseCache responseCache;
+        private int maxRedirects = 5;
+        private Duration timeout;
+
+        // The router the packets go through, null to send them directly to the servers
+        public Builder setRouterAddress(SocketAddress routerAddress) {
+            this.routerAddress = routerAddress;
+            return this;
+        }
+
+        // The cache of GET responses, none by default
+        public Builder setResponseCache(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+            return this;
+        }
+
+        public Builder setMaxRedirects(int maxRedirects) {
+            this.maxRedirects = maxRedirects;
+            return this;
+        }
+
+        // How long a request waits for its response, or for the head of a streamed one, none by default
+        public Builder setTimeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public HttpClient create() {
+            return new HttpClient(this);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package Client;
+
+import Client.Requests.PostRequest;
+import Client.Requests.Request;
+import Helpers.Events.ConnectionClosedEvent;
+import Helpers.Events.HandshakeEvent;
+import Helpers.Latency;
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.UDPConnection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+import java.util.Vector;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class is one request and its response over one UDP connection: the 3-way handshake, the request sent
+ * with selective repeat, and the response read up to the FIN of the server. The socket is closed once the response is read.
+ * The server tells connections apart by the address of the client, so every exchange has a socket of its own.
+ * With a timeout, the exchange gives up when the response is not read in time.
+ */
+class HttpExchange {
+    private final static String EOL = "\r\n";
+    private final static String ACCEPTED_ENCODINGS = "gzip, deflate";
+    private final static int BODY_CHUNK_SIZE = 8192;
+
+    private Request request;
+    private SocketAddress routerAddress;
+    private List<String> extraHeaders;
+    private Duration timeout;
+    private DatagramSocket clientSocket;
+    private UDPConnection connection;
+
+    private volatile boolean SYN_ACKReceivedForHandshake = false;
+    private boolean isTimedOut = false;
+
+    private long bytesSent = 0;
+    private volatile int retransmissions = 0;
+    private long requestStartTime;
+
+    private static final Logger logger = Logger.getLogger(HttpExchange.class.getName());
+
+    /**
+     * Sends the request through the router at routerAddress, or directly to the server when routerAddress is null,
+     * with the given headers added to the ones of the request. The timeout is null when the exchange waits for as long
+     * as the server answers.
+     */
+    HttpExchange(Request request, SocketAddress routerAddress, List<String> extraHeaders, Duration timeout) {
+        this.request = request;
+        this.routerAddress = routerAddress;
+        this.extraHeaders = extraHeaders;
+        this.timeout = timeout;
+    }
+
+    <T> HttpResponse<T> perform(BodyHandler<T> bodyHandler) throws IOException {
+        ArrayList<Packet> finalPacketsInOrder;
+        clientSocket = new DatagramSocket();
+        try {
+            connection = new UDPConnection(clientSocket);
+            connection.setRouterAddress(routerAddress);
+            if (timeout != null)
+                connection.startTimer(this::timeOutRequest, timeout.toNanos());
+
+            threeWayHandshake();
+            sendRequest();
+            finalPacketsInOrder = receiveResponse();
+        } finally {
+            closeUDPConnection();
+        }
+
+        return readResponse(finalPacketsInOrder, bodyHandler, bytesSent, retransmissions);
+    }
+
+    // ------------ 3-way Handshake --------------------------
+    private void threeWayHandshake() throws IOException {
+        int initialSequenceNumber = UDPConnection.getRandomSequenceNumber();
+        long handshakeStartTime = System.nanoTime();
+        HandshakeEvent handshakeEvent = HandshakeEvent.start("client");
+
+        // Send SYN
+        logger.info("Initiate 3-way handshake ...");
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Send SYN packet with seq number " + initialSequenceNumber);
+        connection.sendSYN(initialSequenceNumber, request.getPort(), request.getAddress());
+
+        // Start a timer
+        connection.startTimer(new ResendSyn(initialSequenceNumber, 0));
+
+        // Receive SYN_ACK
+        Packet packetSYNACK = receiveAndVerifySYN_ACK(initialSequenceNumber);
+
+        // Send ACK
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Respond with an ACK {ACK:" + (packetSYNACK.getSequenceNumber() + 1) + "}");
+        connection.sendACK(packetSYNACK.getSequenceNumber() + 1, packetSYNACK.getPeerPort(), packetSYNACK.getPeerAddress());
+        Latency.HANDSHAKE.recordSince(handshakeStartTime);
+        handshakeEvent.complete(packetSYNACK.getPeerAddress(), packetSYNACK.getPeerPort());
+    }
+
+    private Packet receiveAndVerifySYN_ACK(int initialSequenceNumber) throws IOException {
+        Packet packet;
+        do {
+            packet = connection.receivePacket();
+            if (packet == null)
+                throw timedOut();
+        } while(packet.getType() != PacketType.SYN_ACK.value);
+
+        SYN_ACKReceivedForHandshake = true;
+        logger.info("Received a SYN_ACK packet");
+
+        logger.info("Verifying ACK ...");
+        int receivedAcknowledgment = getIntFromPayload(packet.getPayload());
+        if (receivedAcknowledgment != initialSequenceNumber + 1) {
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Unexpected ACK sequence number " + receivedAcknowledgment + "instead of " + (initialSequenceNumber + 1));
+            connection.sendNAK(packet.getPeerPort(), packet.getPeerAddress());
+        }
+
+        if (logger.isLoggable(Level.INFO))
+            logger.info("ACK is verified: {seq sent: " + initialSequenceNumber + ", seq received: " + receivedAcknowledgment + "}");
+        return packet;
+    }
+
+    // ------------ 3-way Handshake --------------------------
+
+    private void sendRequest() throws IOException {
+        logger.log(Level.INFO, "Constructing request to send to server...");
+        String payload = constructPayload(request, extraHeaders);
+
+        logger.log(Level.INFO, "Building packets from request object...");
+        ArrayList<Packet> packets = UDPConnection.buildPackets(payload, PacketType.DATA, request.getPort(), request.getAddress());
+        bytesSent += payload.getBytes().length;
+
+        logger.log(Level.INFO, "Sending packets to server using selective repeat...");
+        requestStartTime = System.nanoTime();
+        if (!connection.sendUsingSelectiveRepeat(packets, request.getPort(), request.getAddress()))
+            throw timedOut();
+    }
+
+    // The request as it is sent, with the given headers added to the ones of the request
+    static String constructPayload(Request request, List<String> extraHeaders) {
+        String requestLine = request.getMethod().name() + " " + request.getPath() + request.getQuery() + " " + "HTTP/1.0" + EOL;
+        String hostHeader = "Host: " + request.getHost() + EOL;
+
+        String headers = "";
+        boolean hasAcceptEncoding = false;
+        if (request.getHeaders().size() > 0) {
+            for (String header : request.getHeaders()) {
+                headers += header + EOL;
+                hasAcceptEncoding |= header.toLowerCase().startsWith("accept-encoding:");
+            }
+        }
+        for (String header : extraHeaders)
+            hasAcceptEncoding |= header.toLowerCase().startsWith("accept-encoding:");
+        // Compressed responses take fewer packets, they are decompressed while the response is read
+        if (!hasAcceptEncoding)
+            headers += "Accept-Encoding: " + ACCEPTED_ENCODINGS + EOL;
+        for (String header : extraHeaders)
+            headers += header + EOL;
+
+        String body = "";
+        if (request instanceof PostRequest) {
+            body = EOL +
+                    ((PostRequest) request).getData() + EOL;
+        }
+
+        return requestLine + hostHeader + headers + body + EOL;
+    }
+
+    private ArrayList<Packet> receiveResponse() throws IOException {
+        // Receive all DATA packets from server
+        ArrayList<Packet> finalPacketsInOrder = connection.receiveAllPackets();
+        if (finalPacketsInOrder == null)
+            throw timedOut();
+        if (connection.getFirstDataReceivedTime() != 0)
+            Latency.TIME_TO_FIRST_BYTE.record(connection.getFirstDataReceivedTime() - requestStartTime);
+
+        return finalPacketsInOrder;
+    }
+
+    /**
+     * Reads the response from its packets in order, and hands its body, decoded from its content encoding, to the body handler.
+     */
+    static <T> HttpResponse<T> readResponse(List<Packet> finalPacketsInOrder, BodyHandler<T> bodyHandler,
+                                            long bytesSent, int retransmissions) throws IOException {
+        logger.log(Level.INFO, "Reading server's response...");
+        long bytesReceived = 0;
+        Vector<InputStream> payloads = new Vector<>();
+        for(Packet packet: finalPacketsInOrder) {
+            payloads.add(new ByteArrayInputStream(packet.getPayload()));
+            bytesReceived += packet.getPayload().length;
+        }
+
+        try (InputStream response = new SequenceInputStream(payloads.elements())) {
+            String responseHead = readHead(response);
+            String contentEncoding = HttpResponse.getHeaderValue(responseHead, "Content-Encoding");
+            InputStream body = response;
+            if ("gzip".equalsIgnoreCase(contentEncoding))
+                body = new GZIPInputStream(response);
+            else if ("deflate".equalsIgnoreCase(contentEncoding))
+                body = new InflaterInputStream(response);
+
+            BodyHandler.BodySink<T> sink = bodyHandler.open();
+            try {
+                byte[] buffer = new byte[BODY_CHUNK_SIZE];
+                int length;
+                while ((length = body.read(buffer)) != -1)
+                    sink.write(ByteBuffer.wrap(buffer, 0, length));
+            } catch (IOException | RuntimeException e) {
+                sink.abort();
+                throw e;
+            }
+
+            return new HttpResponse<>(responseHead, sink.close(), bytesSent, bytesReceived, retransmissions);
+        }
+    }
+
+    // Reads up to and including the empty line that ends the headers, or the whole message when there is none
+    private static String readHead(InputStream response) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int lastBytes = 0;
+        int b;
+        while ((b = response.read()) != -1) {
+            head.write(b);
+            lastBytes = lastBytes << 8 | b;
+            if (lastBytes == ('\r' << 24 | '\n' << 16 | '\r' << 8 | '\n'))
+                break;
+        }
+
+        return head.toString(UTF_8);
+    }
+
+    // Runs on the thread of the exchange once the timeout of the request is over, its receives return null from then on
+    private void timeOutRequest() {
+        isTimedOut = true;
+        connection.close();
+    }
+
+    private SocketTimeoutException timedOut() {
+        if (isTimedOut)
+            return new SocketTimeoutException("The request to " + request.getHost() + " timed out after " + timeout.toMillis() + "ms");
+        return new SocketTimeoutException("The server " + request.getHost() + " stopped answering");
+    }
+
+    private void closeUDPConnection() {
+        logger.log(Level.INFO, "Client closing connection...");
+        clientSocket.close();
+        if (connection == null)
+            return;
+
+        connection.close();
+        retransmissions += connection.getRetransmissions();
+        ConnectionClosedEvent.emit("client", new InetSocketAddress(request.getAddress(), request.getPort()), connection);
+    }
+
+    private int getIntFromPayload(byte[] payload){
+        IntBuffer intBuf = ByteBuffer.wrap(payload).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+        int[] array = new int[intBuf.remaining()];
+        intBuf.get(array);
+        return array[0];
+    }
+
+    private class ResendSyn extends TimerTask {
+        private int initialSequenceNumber;
+        private int retries;
+
+        ResendSyn(int initialSequenceNumber, int retries) {
+            this.initialSequenceNumber = initialSequenceNumber;
+            this.retries = retries;
+        }
+
+        public void run() {
+            if (!SYN_ACKReceivedForHandshake && connection.canRetry(retries)) {
+                retransmissions++;
+                connection.sendSYN(initialSequenceNumber, request.getPort(), request.getAddress());
+
+                // Start a timer
+                connection.startTimer(new ResendSyn(initialSequenceNumber, retries + 1));
+            }
+        }
+    }
+}
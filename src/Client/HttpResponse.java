@@ -0,0 +1,134 @@
+package Client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class is a response returned by HttpClient: the status line and headers as the server sent them,
+ * and the body decoded from its content encoding, as its BodyHandler made it.
+ * The response to a request that was redirected links to the response that redirected it.
+ */
+public class HttpResponse<T> {
+    private final static String EOL = "\r\n";
+
+    private final String head;
+    private final T body;
+    private final int statusCode;
+    private final boolean isFromCache;
+    private HttpResponse<T> previousResponse;
+
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final int retransmissions;
+
+    HttpResponse(String head, T body, long bytesSent, long bytesReceived, int retransmissions) {
+        this(head, body, false, bytesSent, bytesReceived, retransmissions);
+    }
+
+    HttpResponse(String head, T body, boolean isFromCache, long bytesSent, long bytesReceived, int retransmissions) {
+        this.head = head;
+        this.body = body;
+        this.statusCode = getStatusCode(head);
+        this.isFromCache = isFromCache;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.retransmissions = retransmissions;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the value of the given header, null when the server did not send it.
+     */
+    public String getHeader(String name) {
+        return getHeaderValue(head, name);
+    }
+
+    // The status line and headers, up to and including the empty line
+    String getHead() {
+        return head;
+    }
+
+    public T getBody() {
+        return body;
+    }
+
+    // True when the response was read from the cache without asking the server, or after a 304
+    public boolean isFromCache() {
+        return isFromCache;
+    }
+
+    public HttpResponse<T> getPreviousResponse() {
+        return previousResponse;
+    }
+
+    void setPreviousResponse(HttpResponse<T> previousResponse) {
+        this.previousResponse = previousResponse;
+    }
+
+    // Bytes of the requests, over every exchange of the request including redirects
+    public long getBytesSent() {
+        return bytesSent + (previousResponse != null ? previousResponse.getBytesSent() : 0);
+    }
+
+    // Payload bytes of the responses, over every exchange of the request including redirects
+    public long getBytesReceived() {
+        return bytesReceived + (previousResponse != null ? previousResponse.getBytesReceived() : 0);
+    }
+
+    // Packets sent again after a timeout, over every exchange of the request including redirects
+    public int getRetransmissions() {
+        return retransmissions + (previousResponse != null ? previousResponse.getRetransmissions() : 0);
+    }
+
+    /**
+     * Returns the response as text, as it is printed by httpc.
+     */
+    @Override
+    public String toString() {
+        String text = body instanceof byte[] ? new String((byte[]) body, UTF_8) : body != null ? body.toString() : "";
+
+        // A compressed body was sent without the line that ends the message
+        return getHeader("Content-Encoding") == null ? head + text : head + text + EOL;
+    }
+
+    /**
+     * Returns the response with its body, read in memory, handed to the given handler instead.
+     */
+    static <U> HttpResponse<U> withBody(HttpResponse<byte[]> response, BodyHandler<U> bodyHandler) throws IOException {
+        BodyHandler.BodySink<U> sink = bodyHandler.open();
+        try {
+            sink.write(ByteBuffer.wrap(response.body));
+        } catch (IOException | RuntimeException e) {
+            sink.abort();
+            throw e;
+        }
+
+        return new HttpResponse<>(response.head, sink.close(), response.isFromCache,
+                response.bytesSent, response.bytesReceived, response.retransmissions);
+    }
+
+    static String getHeaderValue(String head, String name) {
+        for (String line : head.split(EOL)) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name))
+                return line.substring(colon + 1).trim();
+        }
+
+        return null;
+    }
+
+    // The status code of the status line, -1 when it cannot be read
+    private static int getStatusCode(String head) {
+        String[] statusLineComponents = head.split(EOL, 2)[0].trim().split(" ");
+        try {
+            return statusLineComponents.length >= 3 ? Integer.parseInt(statusLineComponents[1]) : -1;
+        } catch (NumberFormatException exception) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package Client;
+
+import Client.Requests.Request;
+import Helpers.Threads;
+import Helpers.UDPConnection;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is the load generator behind httpc bench. It runs concurrent virtual clients, each sending one request
+ * after the other through an HttpClient shared by all of them, with a mix of GET and POST requests,
+ * until a number of requests have been sent or for a fixed duration. It then reports the throughput,
+ * the retransmissions and the latency percentiles.
+ */
+class LoadGenerator {
+    private Request getRequest;
+    private Request postRequest;
+    private double postRatio;
+    private int clients;
+    private int requests;
+    private long durationInSeconds;
+    private HttpClient client;
+
+    private final AtomicLong startedRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong retransmissions = new AtomicLong();
+    private long deadline;
+
+    private final static double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * Sends requests until the given number has been sent, or for durationInSeconds when it is greater than 0.
+     * A request is a POST with probability postRatio and a GET otherwise.
+     */
+    LoadGenerator(Request getRequest, Request postRequest, double postRatio, int clients, int requests, long durationInSeconds,
+                  SocketAddress routerAddress, boolean isVerbose) {
+        this.getRequest = getRequest;
+        this.postRequest = postRequest;
+        this.postRatio = postRatio;
+        this.clients = clients;
+        this.requests = requests;
+        this.durationInSeconds = durationInSeconds;
+        this.client = new HttpClient.Builder().setRouterAddress(routerAddress).create();
+
+        // Logging every packet of every client would be what is measured
+        Level level = isVerbose ? Level.INFO : Level.WARNING;
+        Logger.getLogger(HttpClient.class.getName()).setLevel(level);
+        Logger.getLogger(HttpExchange.class.getName()).setLevel(level);
+        Logger.getLogger(UDPConnection.class.getName()).setLevel(level);
+    }
+
+    void run() {
+        // Each virtual client blocks while waiting for packets, so each one gets its own thread
+        ExecutorService executor = Threads.newThreadPerTaskExecutor();
+        List<Callable<ArrayList<Long>>> virtualClients = new ArrayList<>();
+        for (int i = 0; i < clients; i++)
+            virtualClients.add(this::runClient);
+
+        long start = System.nanoTime();
+        deadline = start + TimeUnit.SECONDS.toNanos(durationInSeconds);
+        ArrayList<Long> latencies = new ArrayList<>();
+        try {
+            for (Future<ArrayList<Long>> result : executor.invokeAll(virtualClients))
+                latencies.addAll(result.get());
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        printReport(latencies, elapsed);
+    }
+
+    // Returns the latency of every request of this client, in nanoseconds
+    private ArrayList<Long> runClient() {
+        ArrayList<Long> latencies = new ArrayList<>();
+        while (hasNextRequest()) {
+            Request request = ThreadLocalRandom.current().nextDouble() < postRatio ? postRequest : getRequest;
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request, BodyHandler.discarding());
+                latencies.add(System.nanoTime() - start);
+                bytesTransferred.addAndGet(response.getBytesSent() + response.getBytesReceived());
+                retransmissions.addAndGet(response.getRetransmissions());
+                if (response.getStatusCode() >= 400)
+                    failedRequests.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                failedRequests.incrementAndGet();
+            }
+        }
+
+        return latencies;
+    }
+
+    private boolean hasNextRequest() {
+        if (durationInSeconds > 0)
+            return System.nanoTime() < deadline;
+
+        return startedRequests.incrementAndGet() <= requests;
+    }
+
+    private void printReport(ArrayList<Long> latencies, long elapsed) {
+        double seconds = elapsed / 1e9;
+        Collections.sort(latencies);
+
+        System.out.println("Clients:         " + clients);
+        System.out.println("Requests:        " + latencies.size() + " (" + failedRequests.get() + " failed)");
+        System.out.println(String.format(Locale.ROOT, "Duration:        %.2f s", seconds));
+        System.out.println(String.format(Locale.ROOT, "Requests/s:      %.1f", latencies.size() / seconds));
+        System.out.println(String.format(Locale.ROOT, "Bytes/s:         %.0f", bytesTransferred.get() / seconds));
+        System.out.println("Retransmissions: " + retransmissions.get());
+        for (double percentile : PERCENTILES) {
+            String label = "p" + (percentile % 1 == 0 ? String.valueOf((int) percentile) : String.valueOf(percentile)) + ":";
+            System.out.println(String.format(Locale.ROOT, "Latency %-8s %.2f ms", label, getPercentile(latencies, percentile) / 1e6));
+        }
+    }
+
+    // Nearest-rank percentile of the sorted latencies
+    private static long getPercentile(ArrayList<Long> sortedLatencies, double percentile) {
+        if (sortedLatencies.isEmpty())
+            return 0;
+
+        int rank = (int) Math.ceil(percentile / 100 * sortedLatencies.size());
+        return sortedLatencies.get(Math.max(rank, 1) - 1);
+    }
+}
@@ -4,6 +4,7 @@ import Helpers.HTTPMethod;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -30,4 +31,27 @@ public class GetRequest extends Request implements Redirectable {
                 url.getQuery(),
                 this.getHeaders(), this.getPort());
     }
+
+    /**
+     * Returns the same request for the bytes first to last of the resource only, in place of any Range header it had.
+     */
+    public GetRequest withRange(long first, long last) {
+        return withHeader("Range", "bytes=" + first + "-" + last);
+    }
+
+    /**
+     * Returns the same request with the given header in place of any header of the same name it had.
+     */
+    public GetRequest withHeader(String name, String value) {
+        List<String> headers = new ArrayList<>();
+        for (String header : this.getHeaders())
+            if (!header.toLowerCase().startsWith(name.toLowerCase() + ":"))
+                headers.add(header);
+        headers.add(name + ": " + value);
+
+        return new GetRequest(this.getHost(),
+                this.getPath(),
+                this.getQuery().isEmpty() ? null : this.getQuery().substring(1),
+                headers, this.getPort());
+    }
 }
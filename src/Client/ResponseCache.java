@@ -0,0 +1,228 @@
+package Client;
+
+import Client.Requests.Request;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class is the cache of GET responses of the client, kept in a directory so that it outlives the process,
+ * with the entries used most recently also kept in memory.
+ * A response is stored when it has a validator (ETag or Last-Modified) or a max-age, unless its Cache-Control has no-store.
+ * It is used as it is while it is fresh according to its max-age, and once it is stale or marked no-cache the request
+ * is sent again with If-None-Match and If-Modified-Since, so that a file that has not changed comes back as a 304.
+ */
+public class ResponseCache {
+    private final static int MEMORY_ENTRIES = 64;
+    private final static int MAGIC = 0x48434331;
+    private final static String EOL = "\r\n";
+
+    private final Path directory;
+    // In access order, the eldest entry is the least recently used
+    private final Map<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    /**
+     * This class is a response of the cache: the status line and headers as the server sent them, and the decoded body.
+     */
+    static class Entry {
+        private final String key;
+        private final String head;
+        private final byte[] body;
+        private final long storedTime;
+        private final String entityTag;
+        private final String lastModified;
+        private final long maxAge;
+        private final boolean isNoCache;
+
+        private Entry(String key, String head, byte[] body, long storedTime) {
+            this.key = key;
+            this.head = head;
+            this.body = body;
+            this.storedTime = storedTime;
+
+            this.entityTag = HttpResponse.getHeaderValue(head, "ETag");
+            this.lastModified = HttpResponse.getHeaderValue(head, "Last-Modified");
+            String cacheControl = HttpResponse.getHeaderValue(head, "Cache-Control");
+            this.maxAge = getMaxAge(cacheControl);
+            this.isNoCache = hasDirective(cacheControl, "no-cache");
+        }
+
+        HttpResponse<byte[]> getResponse() {
+            return new HttpResponse<>(head, body, true, 0, 0, 0);
+        }
+
+        String getEntityTag() {
+            return entityTag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        boolean isFresh() {
+            return !isNoCache && maxAge >= 0 && System.currentTimeMillis() - storedTime < TimeUnit.SECONDS.toMillis(maxAge);
+        }
+    }
+
+    public ResponseCache(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Returns the response stored for the given GET request, null when there is none.
+     */
+    synchronized Entry get(Request request) {
+        String key = getKey(request);
+        Entry entry = memory.get(key);
+        if (entry == null) {
+            entry = read(key);
+            if (entry != null)
+                memory.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Stores the response to the given GET request, if it may be stored, in place of the previous one.
+     */
+    synchronized void put(Request request, HttpResponse<byte[]> response) {
+        String cacheControl = response.getHeader("Cache-Control");
+        boolean hasValidator = response.getHeader("ETag") != null || response.getHeader("Last-Modified") != null;
+        if (hasDirective(cacheControl, "no-store") || (!hasValidator && getMaxAge(cacheControl) < 0))
+            return;
+
+        Entry entry = new Entry(getKey(request), response.getHead(), response.getBody(), System.currentTimeMillis());
+        memory.put(entry.key, entry);
+        write(entry);
+    }
+
+    /**
+     * Marks the stored response as checked with the server now, after a 304.
+     * The freshness of the 304, if it has a Cache-Control, replaces the one of the stored response.
+     */
+    synchronized Entry revalidate(Entry entry, HttpResponse<?> notModified) {
+        String head = entry.head;
+        String cacheControl = notModified.getHeader("Cache-Control");
+        if (cacheControl != null) {
+            StringBuilder newHead = new StringBuilder();
+            for (String line : head.split(EOL))
+                if (!line.isEmpty() && !line.toLowerCase().startsWith("cache-control:"))
+                    newHead.append(line).append(EOL);
+            newHead.append("Cache-Control: ").append(cacheControl).append(EOL).append(EOL);
+            head = newHead.toString();
+        }
+
+        Entry revalidated = new Entry(entry.key, head, entry.body, System.currentTimeMillis());
+        memory.put(revalidated.key, revalidated);
+        write(revalidated);
+        return revalidated;
+    }
+
+    // ---- Files ----
+
+    // An entry is a file named after the hash of its key, with the key, the time it was stored, the head and the body
+    private Entry read(String key) {
+        Path file = directory.resolve(getFileName(key));
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+            // Two keys with the same hash share a file, and a file of another format is no entry either
+            if (input.readInt() != MAGIC || !input.readUTF().equals(key))
+                return null;
+
+            long storedTime = input.readLong();
+            byte[] head = new byte[input.readInt()];
+            input.readFully(head);
+            return new Entry(key, new String(head, UTF_8), input.readAllBytes(), storedTime);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void write(Entry entry) {
+        Path file = directory.resolve(getFileName(entry.key));
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            byte[] head = entry.head.getBytes(UTF_8);
+            output.writeInt(MAGIC);
+            output.writeUTF(entry.key);
+            output.writeLong(entry.storedTime);
+            output.writeInt(head.length);
+            output.write(head);
+            output.write(entry.body);
+
+            // Other clients may read the entry at the same time, they see the previous file or the new one whole
+            Path temporaryFile = Files.createTempFile(directory, "entry", ".tmp");
+            Files.write(temporaryFile, bytes.toByteArray());
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static String getFileName(String key) {
+        try {
+            StringBuilder name = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(key.getBytes(UTF_8)))
+                name.append(String.format("%02x", b));
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---- Headers ----
+
+    private static String getKey(Request request) {
+        return request.getHost() + ":" + request.getPort() + request.getPath() + request.getQuery();
+    }
+
+    // The max-age of a Cache-Control in seconds, -1 without one
+    private static long getMaxAge(String cacheControl) {
+        if (cacheControl == null)
+            return -1;
+
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase();
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring("max-age=".length()).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasDirective(String cacheControl, String name) {
+        if (cacheControl == null)
+            return false;
+
+        for (String directive : cacheControl.split(","))
+            if (directive.trim().equalsIgnoreCase(name))
+                return true;
+        return false;
+    }
+}
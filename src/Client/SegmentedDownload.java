@@ -0,0 +1,208 @@
+package Client;
+
+import Client.Requests.GetRequest;
+import Helpers.Status;
+import Helpers.UDPConnection;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * This class is the download behind httpc get --segments. A first request for the start of the file returns its length
+ * in Content-Range, then the rest of the file is split into ranges fetched in parallel, each over its own connection
+ * and window, and written at its offset of the output file.
+ * On a lossy path a single transfer is held back by its window on every loss, while here the other segments keep going.
+ * When the server answers the first range with the whole file instead, that body is the file.
+ * The other segments are only sent for the version of the first one, through If-Range, so a file that changes during
+ * the download fails it instead of mixing two versions. A download that fails leaves no file behind.
+ */
+class SegmentedDownload {
+    // The first range is a single window, so learning the length costs about as much as a request for the length alone
+    private final static int FIRST_SEGMENT_LENGTH = UDPConnection.WINDOW_SIZE * UDPConnection.MAX_PAYLOAD_SIZE;
+    private final static String EOL = "\r\n";
+
+    private GetRequest request;
+    private int segments;
+    private String responseFilePath;
+    private boolean isVerbose;
+    private HttpClient client;
+
+    private static final Logger logger = Logger.getLogger(SegmentedDownload.class.getName());
+
+    SegmentedDownload(GetRequest request, int segments, String responseFilePath, SocketAddress routerAddress, boolean isVerbose) {
+        this.request = request;
+        this.segments = segments;
+        this.responseFilePath = responseFilePath;
+        this.isVerbose = isVerbose;
+        this.client = new HttpClient.Builder().setRouterAddress(routerAddress).create();
+
+        // The packets of every segment would be logged in between each other
+        Level level = isVerbose ? Level.INFO : Level.WARNING;
+        Logger.getLogger(HttpClient.class.getName()).setLevel(level);
+        Logger.getLogger(HttpExchange.class.getName()).setLevel(level);
+        Logger.getLogger(UDPConnection.class.getName()).setLevel(level);
+        logger.setLevel(level);
+    }
+
+    /**
+     * Downloads the file, or throws an exception that says why the download failed.
+     */
+    void run() throws IOException {
+        Path file = Paths.get(responseFilePath);
+        try {
+            download(file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw new IOException("Download of " + request.getPath() + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void download(Path file) throws IOException {
+        HttpResponse<byte[]> firstSegment = client.send(request.withRange(0, FIRST_SEGMENT_LENGTH - 1));
+        long[] contentRange = getContentRange(firstSegment);
+        boolean isWholeFile = firstSegment.getStatusCode() == Status.OK.getCode();
+        // An empty file has no byte to send, so no range of it is satisfiable
+        boolean isEmptyFile = firstSegment.getStatusCode() == Status.RANGE_NOT_SATISFIABLE.getCode()
+                && "bytes */0".equals(firstSegment.getHeader("Content-Range"));
+        if (!isWholeFile && !isEmptyFile && (firstSegment.getStatusCode() != Status.PARTIAL_CONTENT.getCode() || contentRange == null))
+            throw new IOException(firstSegment.getHead().split(EOL, 2)[0]);
+
+        if (isVerbose)
+            System.out.print(firstSegment.getHead());
+
+        byte[] body = isWholeFile ? getWholeFile(firstSegment) : isEmptyFile ? new byte[0] : firstSegment.getBody();
+        long length = isWholeFile || isEmptyFile ? body.length : contentRange[2];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, body, 0);
+            if (isWholeFile)
+                logger.info("The server sent the whole file instead of a range of it");
+            else if (!isEmptyFile)
+                downloadRest(channel, getSegmentRequest(firstSegment), contentRange[1] + 1, length);
+        }
+
+        if (isVerbose)
+            System.out.println("Downloaded " + length + " bytes of " + request.getPath() + " in " + segments + " segments to " + file);
+    }
+
+    // The body of a 200 answer, checked against its Content-Length. A body sent as text ends with an EOL the file does not have.
+    private static byte[] getWholeFile(HttpResponse<byte[]> response) throws IOException {
+        byte[] body = response.getBody();
+        String contentLength = response.getHeader("Content-Length");
+        // The length of a compressed body is the one of its encoding, which was checked when it was decompressed
+        if (contentLength == null || response.getHeader("Content-Encoding") != null)
+            return body;
+
+        long length;
+        try {
+            length = Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("the Content-Length of the file cannot be read");
+        }
+        if (body.length == length + EOL.length() && new String(body, body.length - EOL.length(), EOL.length(), ISO_8859_1).equals(EOL))
+            return Arrays.copyOf(body, (int) length);
+        if (body.length != length)
+            throw new IOException("the file sent is " + body.length + " bytes instead of " + length);
+        return body;
+    }
+
+    // The later segments are only sent for the version of the first one: its strong ETag, otherwise its Last-Modified date
+    private GetRequest getSegmentRequest(HttpResponse<byte[]> firstSegment) {
+        String entityTag = firstSegment.getHeader("ETag");
+        if (entityTag != null && entityTag.startsWith("\""))
+            return request.withHeader("If-Range", entityTag);
+
+        String lastModified = firstSegment.getHeader("Last-Modified");
+        return lastModified != null ? request.withHeader("If-Range", lastModified) : request;
+    }
+
+    // Splits the bytes from offset to the end of the file into segments fetched at the same time
+    private void downloadRest(FileChannel channel, GetRequest segmentRequest, long offset, long length) throws IOException {
+        if (offset >= length)
+            return;
+
+        long segmentLength = (length - offset + segments - 1) / segments;
+        List<Callable<Void>> downloads = new ArrayList<>();
+        for (long first = offset; first < length; first += segmentLength) {
+            long segmentFirst = first;
+            long segmentLast = Math.min(first + segmentLength, length) - 1;
+            downloads.add(() -> {
+                downloadSegment(channel, segmentRequest, segmentFirst, segmentLast, length);
+                return null;
+            });
+        }
+
+        // Each segment blocks on its own connection, so each one gets its own thread
+        ExecutorService executor = Executors.newFixedThreadPool(downloads.size());
+        try {
+            for (Future<Void> download : executor.invokeAll(downloads))
+                download.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void downloadSegment(FileChannel channel, GetRequest segmentRequest, long first, long last, long length) throws IOException {
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Downloading bytes " + first + "-" + last + " ...");
+        HttpResponse<byte[]> segment = client.send(segmentRequest.withRange(first, last));
+
+        // The server answers If-Range with the whole file once it is no longer the version of the first segment
+        if (segment.getStatusCode() == Status.OK.getCode())
+            throw new IOException("the file changed during the download");
+        long[] contentRange = getContentRange(segment);
+        if (segment.getStatusCode() != Status.PARTIAL_CONTENT.getCode() || contentRange == null
+                || contentRange[0] != first || contentRange[1] != last || contentRange[2] != length
+                || segment.getBody().length != last - first + 1)
+            throw new IOException("bytes " + first + "-" + last + " were not sent as requested");
+
+        write(channel, segment.getBody(), first);
+    }
+
+    // Positional writes do not move the position of the channel, so the segments can write at the same time
+    private static void write(FileChannel channel, byte[] bytes, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining())
+            channel.write(buffer, offset + buffer.position());
+    }
+
+    // The first byte, last byte and length of the file from the Content-Range of a response, null without one
+    private static long[] getContentRange(HttpResponse<?> response) {
+        String contentRange = response.getHeader("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes "))
+            return null;
+
+        try {
+            int dash = contentRange.indexOf('-');
+            int slash = contentRange.indexOf('/');
+            return new long[]{
+                    Long.parseLong(contentRange.substring("bytes ".length(), dash).trim()),
+                    Long.parseLong(contentRange.substring(dash + 1, slash).trim()),
+                    Long.parseLong(contentRange.substring(slash + 1).trim())
+            };
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package Helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * This class is the packet capture of the process. When it is on, every datagram that UDPConnection sends or receives
+ * is written to a binary file with the time it was seen, so that Router.Replayer can play the traffic back offline.
+ * Received packets are written after the header has been rewritten with the sender, so the peer of a record
+ * is always the other side of the connection.
+ * A capture file is a header (magic number and version) followed by records of
+ * time since the start in nanoseconds (long), direction (byte), length (short) and the packet as it is on the wire.
+ */
+public class Capture {
+    private final static int MAGIC = 0x48434150;
+    private final static int VERSION = 1;
+    private final static byte SENT = 0;
+    private final static byte RECEIVED = 1;
+
+    private static volatile boolean enabled = false;
+    private static DataOutputStream output;
+    private static long startTime;
+
+    /**
+     * This class is a datagram of a capture file.
+     */
+    public static class Record {
+        private final long time;
+        private final boolean isSent;
+        private final Packet packet;
+
+        Record(long time, boolean isSent, Packet packet) {
+            this.time = time;
+            this.isSent = isSent;
+            this.packet = packet;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public boolean isSent() {
+            return isSent;
+        }
+
+        public Packet getPacket() {
+            return packet;
+        }
+
+        @Override
+        public String toString() {
+            PacketType[] types = PacketType.values();
+            Object type = packet.getType() < types.length ? types[packet.getType()] : packet.getType();
+            return time + " " + (isSent ? "SENT" : "RECEIVED") + " " + type + " " + packet;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts writing the capture to the given file. Does nothing if the capture is already on.
+     */
+    public static synchronized void start(Path file) throws IOException {
+        if (enabled)
+            return;
+
+        output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+        output.writeInt(MAGIC);
+        output.writeShort(VERSION);
+        startTime = System.nanoTime();
+        enabled = true;
+    }
+
+    /**
+     * Stops the capture and closes the file.
+     */
+    public static synchronized void stop() {
+        if (!enabled)
+            return;
+
+        enabled = false;
+        try {
+            output.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void recordSent(Packet packet) {
+        if (enabled)
+            write(SENT, packet);
+    }
+
+    public static void recordReceived(Packet packet) {
+        if (enabled)
+            write(RECEIVED, packet);
+    }
+
+    private static synchronized void write(byte direction, Packet packet) {
+        // The capture may have been stopped since the caller checked
+        if (!enabled)
+            return;
+
+        try {
+            byte[] bytes = packet.toBytes();
+            output.writeLong(System.nanoTime() - startTime);
+            output.writeByte(direction);
+            output.writeShort(bytes.length);
+            output.write(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            enabled = false;
+        }
+    }
+
+    /**
+     * Returns the records of a capture file in the order they were written.
+     */
+    public static ArrayList<Record> read(Path file) throws IOException {
+        ArrayList<Record> records = new ArrayList<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readShort() != VERSION)
+                throw new IOException(file + " is not a capture file");
+
+            while (true) {
+                try {
+                    long time = input.readLong();
+                    byte direction = input.readByte();
+                    byte[] bytes = new byte[input.readUnsignedShort()];
+                    input.readFully(bytes);
+                    records.add(new Record(time, direction == SENT, Packet.fromBytes(bytes)));
+                } catch (EOFException e) {
+                    // A capture cut short by the end of the process keeps its complete records
+                    return records;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package Helpers;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class batches the datagrams of a non-blocking channel.
+ * It drains every datagram that is ready in one pass, and queues outgoing packets so that everything produced
+ * while handling a pass (a window of DATA packets, the ACKs of a burst) is flushed together.
+ * It belongs to the single thread that drives the channel and is not thread-safe.
+ */
+public class DatagramBatch {
+    public final static int MAX_BATCH_SIZE = 64;
+
+    private static final Logger logger = Logger.getLogger(DatagramBatch.class.getName());
+
+    private final DatagramChannel channel;
+    private final boolean isDirect;
+    // Direct buffers are reused for every datagram, the channel would otherwise copy each heap buffer into a temporary one
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(Packet.MAX_LEN).order(ByteOrder.BIG_ENDIAN);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(Packet.MAX_LEN).order(ByteOrder.BIG_ENDIAN);
+    private final ArrayList<Packet> received = new ArrayList<>(MAX_BATCH_SIZE);
+    private final ArrayDeque<Packet> packetsToSend = new ArrayDeque<>();
+    private final ArrayDeque<SocketAddress> destinations = new ArrayDeque<>();
+
+    /**
+     * Creates the batch of a channel. When packets come directly from their peers instead of through the router,
+     * their header is rewritten with the sender like the router would have done.
+     */
+    public DatagramBatch(DatagramChannel channel, boolean isDirect) {
+        this.channel = channel;
+        this.isDirect = isDirect;
+    }
+
+    /**
+     * Reads the datagrams that are ready, up to MAX_BATCH_SIZE, without blocking.
+     * The returned list is reused by the next call.
+     */
+    public ArrayList<Packet> receiveAll() throws IOException {
+        received.clear();
+        SocketAddress sender;
+        while (received.size() < MAX_BATCH_SIZE && (sender = channel.receive(receiveBuffer)) != null) {
+            receiveBuffer.flip();
+            try {
+                Packet packet = Packet.fromBuffer(receiveBuffer);
+                if (isDirect)
+                    packet = UDPConnection.fromSender(packet, sender);
+
+                Trace.record(Trace.Point.RECEIVED, packet);
+                Capture.recordReceived(packet);
+                received.add(packet);
+            } catch (IOException e) {
+                logger.log(Level.INFO, "Dropped malformed packet", e);
+            }
+            receiveBuffer.clear();
+        }
+
+        return received;
+    }
+
+    /**
+     * Queues the packet until the next flush.
+     */
+    public void send(Packet packet, SocketAddress destination) {
+        packetsToSend.add(packet);
+        destinations.add(destination);
+    }
+
+    /**
+     * Sends the queued packets. Returns false when the socket buffer filled up before all of them were sent,
+     * in which case the rest stays queued for the next flush.
+     */
+    public boolean flush() {
+        while (!packetsToSend.isEmpty()) {
+            sendBuffer.clear();
+            packetsToSend.peek().write(sendBuffer);
+            sendBuffer.flip();
+            try {
+                if (channel.send(sendBuffer, destinations.peek()) == 0)
+                    return false;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            packetsToSend.poll();
+            destinations.poll();
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package Helpers.Events;
+
+import Helpers.UDPConnection;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.net.SocketAddress;
+
+/**
+ * This JFR event is emitted when a connection is closed, with what it transferred.
+ */
+@Name("HTTPClient.ConnectionClosed")
+@Label("Connection Closed")
+@Category({"HTTPClient", "Connection"})
+@Description("A connection was closed")
+public class ConnectionClosedEvent extends Event {
+    @Label("Side")
+    String side;
+
+    @Label("Peer")
+    String peer;
+
+    @Label("Bytes Sent")
+    @DataAmount
+    long bytesSent;
+
+    @Label("Bytes Received")
+    @DataAmount
+    long bytesReceived;
+
+    @Label("Retransmissions")
+    int retransmissions;
+
+    public static void emit(String side, SocketAddress peer, UDPConnection connection) {
+        ConnectionClosedEvent event = new ConnectionClosedEvent();
+        if (event.shouldCommit()) {
+            event.side = side;
+            event.peer = String.valueOf(peer);
+            event.bytesSent = connection.getBytesSent();
+            event.bytesReceived = connection.getBytesReceived();
+            event.retransmissions = connection.getRetransmissions();
+            event.commit();
+        }
+    }
+}
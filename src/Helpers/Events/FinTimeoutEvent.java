@@ -0,0 +1,33 @@
+package Helpers.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.net.InetAddress;
+
+/**
+ * This JFR event is emitted when the FIN that ends a transfer is sent again because its ACK did not arrive before the timeout.
+ */
+@Name("HTTPClient.FinTimeout")
+@Label("FIN Timeout")
+@Category({"HTTPClient", "Transport"})
+@Description("The FIN that ends a transfer was sent again because its ACK did not arrive before the timeout")
+public class FinTimeoutEvent extends Event {
+    @Label("Peer")
+    String peer;
+
+    @Label("Sequence Number")
+    int sequenceNumber;
+
+    public static void emit(InetAddress peerAddress, int peerPort, int sequenceNumber) {
+        FinTimeoutEvent event = new FinTimeoutEvent();
+        if (event.shouldCommit()) {
+            event.peer = peerAddress.getHostAddress() + ":" + peerPort;
+            event.sequenceNumber = sequenceNumber;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package Helpers.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.net.InetAddress;
+
+/**
+ * This JFR event covers a 3-way handshake, from the SYN to its ACK, on the client or the server side.
+ */
+@Name("HTTPClient.Handshake")
+@Label("Handshake")
+@Category({"HTTPClient", "Connection"})
+@Description("A 3-way handshake completed, from the SYN to its ACK")
+public class HandshakeEvent extends Event {
+    @Label("Side")
+    String side;
+
+    @Label("Peer")
+    String peer;
+
+    /**
+     * Starts timing the handshake of the given side, client or server.
+     */
+    public static HandshakeEvent start(String side) {
+        HandshakeEvent event = new HandshakeEvent();
+        event.side = side;
+        event.begin();
+        return event;
+    }
+
+    public void complete(InetAddress peerAddress, int peerPort) {
+        end();
+        if (shouldCommit()) {
+            peer = peerAddress.getHostAddress() + ":" + peerPort;
+            commit();
+        }
+    }
+}
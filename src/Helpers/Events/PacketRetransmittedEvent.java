@@ -0,0 +1,34 @@
+package Helpers.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.net.InetAddress;
+
+/**
+ * This JFR event is emitted when a DATA packet is sent again because its ACK did not arrive before the timeout.
+ */
+@Name("HTTPClient.PacketRetransmitted")
+@Label("Packet Retransmitted")
+@Category({"HTTPClient", "Transport"})
+@Description("A DATA packet was sent again because its ACK did not arrive before the timeout")
+public class PacketRetransmittedEvent extends Event {
+    @Label("Peer")
+    String peer;
+
+    @Label("Sequence Number")
+    int sequenceNumber;
+
+    public static void emit(InetAddress peerAddress, int peerPort, int sequenceNumber) {
+        PacketRetransmittedEvent event = new PacketRetransmittedEvent();
+        // Fields are only filled when a recording wants the event, the allocation alone is optimized away otherwise
+        if (event.shouldCommit()) {
+            event.peer = peerAddress.getHostAddress() + ":" + peerPort;
+            event.sequenceNumber = sequenceNumber;
+            event.commit();
+        }
+    }
+}
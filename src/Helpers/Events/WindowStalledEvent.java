@@ -0,0 +1,47 @@
+package Helpers.Events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * This JFR event covers the time a sender spends with its whole window in flight and packets waiting behind it,
+ * from the moment the window is full until an ACK slides it.
+ */
+@Name("HTTPClient.WindowStalled")
+@Label("Window Stalled")
+@Category({"HTTPClient", "Transport"})
+@Description("The whole window is in flight and packets are waiting until an ACK slides it")
+// Every window fills up on a fast link, only the stalls long enough to matter are recorded by default
+@Threshold("1 ms")
+public class WindowStalledEvent extends Event {
+    @Label("Window Size")
+    int windowSize;
+
+    @Label("Packets Waiting")
+    int packetsWaiting;
+
+    /**
+     * Starts timing a stall. Returns null when no recording wants the event, so that nothing is kept.
+     */
+    public static WindowStalledEvent start() {
+        WindowStalledEvent event = new WindowStalledEvent();
+        if (!event.isEnabled())
+            return null;
+
+        event.begin();
+        return event;
+    }
+
+    public void complete(int windowSize, int packetsWaiting) {
+        end();
+        if (shouldCommit()) {
+            this.windowSize = windowSize;
+            this.packetsWaiting = packetsWaiting;
+            commit();
+        }
+    }
+}
@@ -4,7 +4,7 @@ package Helpers;
  * This enum class contains the different types of help messages that can be sent to the user.
  */
 public enum HelpMessage {
-    INCORRECT_PARAM_HTTPC, INCORRECT_PARAM_HTTPFS, CLIENT, GET, POST, SERVER, INVALID_BASE_DIRECTORY, INVALID_PORT_NUMBER;
+    INCORRECT_PARAM_HTTPC, INCORRECT_PARAM_HTTPFS, INCORRECT_PARAM_ROUTER, UNSUPPORTED_OPTION_HTTPC, CLIENT, GET, POST, BENCH, SERVER, ROUTER, INVALID_BASE_DIRECTORY, INVALID_PORT_NUMBER, INVALID_EVENT_LOOPS, INVALID_SHARDS, INVALID_RATE, INVALID_DELAY, INVALID_LATENCY_FORMAT, INVALID_TRACE_FILE, INVALID_CAPTURE_FILE, INVALID_COMPRESSION_CACHE, INVALID_CACHE_DIRECTORY;
 
     public String getMessage() {
         String message = "";
@@ -15,6 +15,14 @@ public enum HelpMessage {
             case INCORRECT_PARAM_HTTPFS:
                 message = "Incorrect parameters! Try httpfs help for more information.";
                 break;
+            case INCORRECT_PARAM_ROUTER:
+                message = "Incorrect parameters! Try router help for more information.";
+                break;
+            case UNSUPPORTED_OPTION_HTTPC:
+                message = "Option is not supported. Here's the list of supported options: -v, -h, -o, -p, --pacing, --checksum,\n" +
+                        "--router-host, --router-port, --direct, --latencies, --trace and --capture, with -d and -f for post and bench,\n" +
+                        "--segments and --cache for get, and -c, -n, -t and --post-ratio for bench.";
+                break;
             case CLIENT:
                 message = "httpc is curl-like application but supports HTTP protocol only.\n" +
                         "Usage:\n" +
@@ -22,19 +30,45 @@ public enum HelpMessage {
                         "The commands are:\n" +
                         "\tget \texecutes a HTTP GET request and prints the response.\n" +
                         "\tpost\texecutes a HTTP POST request and prints the response.\n" +
+                        "\tbench\tsends many concurrent requests and reports the throughput and latencies.\n" +
                         "\thelp\tprints this screen.\n" +
                         "Use \"httpcs help [command]\" for more information about a command.\n";
                 break;
             case GET:
-                message = "usage: httpc get [-v] [-h key:value] URL\n" +
+                message = "usage: httpc get [-v] [-h key:value] [-o file] [--segments N] [--cache dir] [--pacing] [--checksum]\n" +
+                        "\t[--router-host host] [--router-port port] [--direct] [--latencies format] [--trace file] [--capture file] URL\n" +
                         "Get executes a HTTP GET request for a given URL.\n" +
                         "\t-v          \t" +
                         "Prints the detail of the response such as protocol, status and headers.\n" +
                         "\t-h key:value\t" +
-                        "Associates headers to HTTP Request with the format 'key:value'.\n";
+                        "Associates headers to HTTP Request with the format 'key:value'.\n" +
+                        "\t-o file     \t" +
+                        "Writes the response to the given file instead of the console.\n" +
+                        "\t--segments N\t" +
+                        "Downloads the file to the -o file in N byte ranges fetched over parallel connections. Default is 1.\n" +
+                        "\t--cache dir \t" +
+                        "Keeps the responses in the given directory. A response is reused while its max-age lasts,\n" +
+                        "\t\t\tthen only if the server answers 304 Not Modified to its ETag or Last-Modified date.\n" +
+                        "\t--pacing    \t" +
+                        "Spreads the packets sent over the round-trip time instead of sending each window in a burst.\n" +
+                        "\t--checksum  \t" +
+                        "Sends the packets with a CRC32C of their content. Packets received are checked whenever they carry one.\n" +
+                        "\t--router-host host\t" +
+                        "Sends the packets through the router on the given host. Default is localhost.\n" +
+                        "\t--router-port port\t" +
+                        "Sends the packets through the router on the given port. Default is 3000.\n" +
+                        "\t--direct    \t" +
+                        "Sends the packets directly to the server, without a router.\n" +
+                        "\t--latencies format\t" +
+                        "Prints the latency histograms of the handshake, time to first byte, transfer and packet RTT as text or json.\n" +
+                        "\t--trace file\t" +
+                        "Writes every packet sent, received, resent or dropped to the given file.\n" +
+                        "\t--capture file\t" +
+                        "Records every packet sent or received to the given file, to be played back by router --replay.\n";
                 break;
             case POST:
-                message = "usage: httpc post [-v] [-h key:value] [-d inline-data] [-f file] URL\n" +
+                message = "usage: httpc post [-v] [-h key:value] [-d inline-data] [-f file] [--pacing] [--checksum]\n" +
+                        "\t[--router-host host] [--router-port port] [--direct] [--latencies format] [--trace file] [--capture file] URL\n" +
                         "Post executes a HTTP POST request for a given URL with inline data from file.\n" +
                         "\t-v          \t" +
                         "Prints the detail of the response such as protocol, status and headers.\n" +
@@ -43,16 +77,94 @@ public enum HelpMessage {
                         "\t-d string    \t" +
                         "Associates the inline data to the body HTTP POST request.\n" +
                         "\t-f file      \t" +
-                        "Associates the content of a file to the body HTTP POST request.\n\n" +
+                        "Associates the content of a file to the body HTTP POST request.\n" +
+                        "\t--pacing    \t" +
+                        "Spreads the packets sent over the round-trip time instead of sending each window in a burst.\n" +
+                        "\t--checksum  \t" +
+                        "Sends the packets with a CRC32C of their content. Packets received are checked whenever they carry one.\n" +
+                        "\t--router-host host\t" +
+                        "Sends the packets through the router on the given host. Default is localhost.\n" +
+                        "\t--router-port port\t" +
+                        "Sends the packets through the router on the given port. Default is 3000.\n" +
+                        "\t--direct    \t" +
+                        "Sends the packets directly to the server, without a router.\n" +
+                        "\t--latencies format\t" +
+                        "Prints the latency histograms of the handshake, time to first byte, transfer and packet RTT as text or json.\n" +
+                        "\t--trace file\t" +
+                        "Writes every packet sent, received, resent or dropped to the given file.\n" +
+                        "\t--capture file\t" +
+                        "Records every packet sent or received to the given file, to be played back by router --replay.\n\n" +
                         "Either [-d] or [-f] can be used but not both.\n";
                 break;
+            case BENCH:
+                message = "usage: httpc bench [-c clients] [-n requests | -t seconds] [--post-ratio ratio] [-h key:value]\n" +
+                        "\t[-d inline-data] [-f file] [--pacing] [--checksum] [--router-host host] [--router-port port] [--direct]\n" +
+                        "\t[--latencies format] [--trace file] [--capture file] URL\n" +
+                        "Bench sends requests to a given URL from concurrent clients and reports the requests/s, bytes/s,\n" +
+                        "retransmissions and latency percentiles.\n" +
+                        "\t-c clients  \t" +
+                        "Number of concurrent clients, each sending one request after the other. Default is 10.\n" +
+                        "\t-n requests \t" +
+                        "Total number of requests to send. Default is 1000.\n" +
+                        "\t-t seconds  \t" +
+                        "Sends requests for the given duration instead of a number of requests.\n" +
+                        "\t--post-ratio ratio\t" +
+                        "Share of the requests, between 0 and 1, that are POST requests with the data of -d or -f. Default is 0.\n" +
+                        "The other options are the ones of get and post.\n";
+                break;
             case SERVER:
                 message = "httpfs is a simple file server.\n" +
-                        "usage: httpfs [-v] [-p PORT] [-d PATH-TO-DIR]\n" +
+                        "usage: httpfs [-v] [-p PORT] [-d PATH-TO-DIR] [-e EVENT-LOOPS] [-s SOCKETS] [--pacing] [--checksum]\n" +
+                        "\t[--router-host HOST] [--router-port PORT] [--direct] [--latencies FORMAT] [--trace FILE]\n" +
+                        "\t[--capture FILE] [--compression-cache MB]\n" +
                         "\t-v \tPrints debugging messages.\n" +
                         "\t-p \tSpecifies the port number that the server will listen and serve at.\n" +
                         "\t\tDefault is 8080.\n" +
-                        "\t-d \tSpecifies the directory that the server will use to read/write requested files. Default is the current directory when launching the application.";
+                        "\t-d \tSpecifies the directory that the server will use to read/write requested files. Default is the current directory when launching the application.\n" +
+                        "\t-e \tServes connections from the given number of event loop threads instead of a thread per connection.\n" +
+                        "\t\tDefault is 0 (a thread per connection).\n" +
+                        "\t-s \tOpens the given number of sockets on the port (SO_REUSEPORT), each with its own receive thread.\n" +
+                        "\t\tThe kernel spreads clients over them by address, so traffic relayed by a single router stays on one socket.\n" +
+                        "\t\tIgnored with -e. Default is 1.\n" +
+                        "\t--pacing \tSpreads the packets sent over the round-trip time instead of sending each window in a burst.\n" +
+                        "\t--checksum \tSends the packets with a CRC32C of their content. Packets received are checked whenever they carry one.\n" +
+                        "\t--router-host \tSends the responses through the router on the given host. Default is localhost.\n" +
+                        "\t--router-port \tSends the responses through the router on the given port. Default is 3000.\n" +
+                        "\t--direct \tExchanges packets directly with the clients, without a router.\n" +
+                        "\t--latencies \tPrints the latency histograms of the handshake, transfer, packet RTT and request handler\n" +
+                        "\t\tas text or json when the server stops.\n" +
+                        "\t--trace \tWrites every packet sent, received, resent or dropped to the given file.\n" +
+                        "\t--capture \tRecords every packet sent or received to the given file, to be played back by router --replay.\n" +
+                        "\t--compression-cache \tKeeps the compressed bodies of the files served most recently, up to the given size in MB.\n" +
+                        "\t\t0 compresses every response again. Default is 16.\n" +
+                        "Text files are sent compressed with gzip or deflate to the clients that accept it. A FILE.br or FILE.gz next to FILE\n" +
+                        "is sent instead when the client accepts its encoding and it is not older than FILE.\n" +
+                        "A GET with a Range header gets only the requested bytes of the file (206 Partial Content), several ranges as multipart/byteranges.\n" +
+                        "File responses carry an ETag and a Last-Modified date. A GET whose If-None-Match or If-Modified-Since matches\n" +
+                        "the file gets 304 Not Modified without the file.\n" +
+                        "GET /_metrics returns the counters of the server in the Prometheus text format.";
+                break;
+            case ROUTER:
+                message = "router forwards packets between httpc and httpfs like the course router, with simulated network conditions.\n" +
+                        "usage: router [-v] [--port PORT] [--drop-rate RATE] [--corrupt-rate RATE] [--delay MS] [--jitter MS]\n" +
+                        "\t[--duplicate-rate RATE] [--reorder-rate RATE] [--reorder-delay MS] [--seed SEED]\n" +
+                        "usage: router [-v] [--port PORT] --replay FILE [--server-host HOST] [--server-port PORT] [--dump]\n" +
+                        "\t-v \t\t\tPrints every packet dropped, or every packet of the engine during a replay.\n" +
+                        "\t--port \t\t\tSpecifies the port number that the router will listen at. Default is 3000.\n" +
+                        "\t--drop-rate \t\tProbability in [0, 1] that a packet is lost. Default is 0.\n" +
+                        "\t--corrupt-rate \t\tProbability in [0, 1] that a bit of a packet is flipped. Default is 0.\n" +
+                        "\t--delay \t\tDelay in milliseconds added to every packet. Default is 0.\n" +
+                        "\t--jitter \t\tRandom delay in milliseconds, up to the given value, added on top of the delay. Default is 0.\n" +
+                        "\t--duplicate-rate \tProbability in [0, 1] that a packet is delivered twice. Default is 0.\n" +
+                        "\t--reorder-rate \t\tProbability in [0, 1] that a packet is held back so that later packets overtake it. Default is 0.\n" +
+                        "\t--reorder-delay \tExtra delay in milliseconds of the packets held back. Default is 5.\n" +
+                        "\t--seed \t\t\tSeed of the random generator, the same seed replays the same decisions. Default is 0.\n" +
+                        "\t--replay \t\tPlays back a capture of httpc or httpfs instead of forwarding packets, with the original timing.\n" +
+                        "\t\t\t\tThe client or server under test uses the router as usual and its packets are compared with the capture.\n" +
+                        "\t\t\t\tA client capture must hold a single request.\n" +
+                        "\t--server-host \t\tHost of the server a server capture is played to. Default is localhost.\n" +
+                        "\t--server-port \t\tPort of the server a server capture is played to. Default is 8080.\n" +
+                        "\t--dump \t\t\tPrints the packets of the capture instead of playing it.\n";
                 break;
             case INVALID_BASE_DIRECTORY:
                 message = "Base directory provided does not exist.";
@@ -60,6 +172,33 @@ public enum HelpMessage {
             case INVALID_PORT_NUMBER:
                 message = "Port number is invalid. The accepted range is [1024,65535].";
                 break;
+            case INVALID_EVENT_LOOPS:
+                message = "Number of event loops is invalid. It cannot be negative.";
+                break;
+            case INVALID_SHARDS:
+                message = "Number of sockets is invalid. It must be at least 1.";
+                break;
+            case INVALID_RATE:
+                message = "Rate is invalid. The accepted range is [0,1].";
+                break;
+            case INVALID_DELAY:
+                message = "Delay is invalid. It cannot be negative.";
+                break;
+            case INVALID_LATENCY_FORMAT:
+                message = "Latency format is invalid. It must be text or json.";
+                break;
+            case INVALID_TRACE_FILE:
+                message = "Trace file cannot be written.";
+                break;
+            case INVALID_CAPTURE_FILE:
+                message = "Capture file cannot be read or written.";
+                break;
+            case INVALID_COMPRESSION_CACHE:
+                message = "Compression cache size is invalid. It cannot be negative.";
+                break;
+            case INVALID_CACHE_DIRECTORY:
+                message = "Cache directory cannot be created.";
+                break;
         }
         return message;
     }
@@ -0,0 +1,92 @@
+package Helpers;
+
+import java.util.Locale;
+
+/**
+ * This enum class contains the phases of a request whose latency is recorded, each in its own LatencyHistogram.
+ * The histograms belong to the process: httpc records the client side of its requests and httpfs the server side.
+ */
+public enum Latency {
+    HANDSHAKE("handshake"),
+    TIME_TO_FIRST_BYTE("time_to_first_byte"),
+    TRANSFER("transfer"),
+    PACKET_RTT("packet_rtt"),
+    SERVER_HANDLER("server_handler");
+
+    private final static double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    Latency(String name) {
+        this.name = name;
+    }
+
+    public void record(long durationInNanos) {
+        histogram.record(durationInNanos);
+    }
+
+    public void recordSince(long startInNanos) {
+        histogram.record(System.nanoTime() - startInNanos);
+    }
+
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Returns a table of every phase with its count, mean, percentiles and max in milliseconds.
+     */
+    public static String toText() {
+        StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "%-20s %8s %10s", "phase (ms)", "count", "mean"));
+        for (double percentile : PERCENTILES)
+            text.append(String.format(Locale.ROOT, " %10s", getLabel(percentile)));
+        text.append(String.format(Locale.ROOT, " %10s%n", "max"));
+
+        for (Latency latency : values()) {
+            LatencyHistogram histogram = latency.histogram;
+            text.append(String.format(Locale.ROOT, "%-20s %8d %10.3f", latency.name, histogram.getCount(), histogram.getMean() / 1e6));
+            for (double percentile : PERCENTILES)
+                text.append(String.format(Locale.ROOT, " %10.3f", histogram.getValueAtPercentile(percentile) / 1e6));
+            text.append(String.format(Locale.ROOT, " %10.3f%n", histogram.getMax() / 1e6));
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Returns every phase as a JSON object with its count, mean, percentiles and max in milliseconds.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\"unit\":\"ms\"");
+        for (Latency latency : values()) {
+            LatencyHistogram histogram = latency.histogram;
+            json.append(",\"").append(latency.name).append("\":{")
+                    .append("\"count\":").append(histogram.getCount())
+                    .append(String.format(Locale.ROOT, ",\"mean\":%.3f", histogram.getMean() / 1e6));
+            for (double percentile : PERCENTILES)
+                json.append(String.format(Locale.ROOT, ",\"%s\":%.3f", getLabel(percentile), histogram.getValueAtPercentile(percentile) / 1e6));
+            json.append(String.format(Locale.ROOT, ",\"max\":%.3f}", histogram.getMax() / 1e6));
+        }
+
+        return json.append("}").toString();
+    }
+
+    /**
+     * Returns the export in the given format, text or json, or null when the format is unknown.
+     */
+    public static String export(String format) {
+        switch (format) {
+            case "text":
+                return toText();
+            case "json":
+                return toJson();
+            default:
+                return null;
+        }
+    }
+
+    private static String getLabel(double percentile) {
+        return "p" + (percentile % 1 == 0 ? String.valueOf((int) percentile) : String.valueOf(percentile));
+    }
+}
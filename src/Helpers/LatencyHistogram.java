@@ -0,0 +1,90 @@
+package Helpers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a histogram of durations in nanoseconds, in the spirit of HdrHistogram.
+ * Buckets grow with the magnitude of the value: each power of two is split into SUB_BUCKET_COUNT / 2 linear buckets,
+ * so any value is kept within 1/64 (about 1.6%) of itself, from a nanosecond to hours, in a fixed array.
+ * Recording is lock-free (a few atomic increments) so it can stay on in every connection.
+ */
+public class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 7;
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    // The highest bit of a positive long is bit 62, so values are shifted by at most 62 - (SUB_BUCKET_BITS - 1)
+    private final static int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0)
+            return;
+
+        counts.incrementAndGet(getIndex(value));
+        totalCount.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values fall, within the precision of a bucket.
+     */
+    public long getValueAtPercentile(double percentile) {
+        // Counts keep changing while they are read, so the rank is computed from the same snapshot
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(getHighestValue(i), getMax());
+        }
+
+        return getMax();
+    }
+
+    // Values below SUB_BUCKET_COUNT have a bucket each, larger ones share a bucket with the values of the same top 7 bits
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    private static long getHighestValue(int index) {
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -3,17 +3,32 @@ package Helpers;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.zip.CRC32C;
 
 /**
  * Packet represents a simulated network packet.
  * As we don't have unsigned types in Java, we can achieve this by using a larger type.
+ * A packet can carry a CRC32C of its type, sequence number and payload right after the header, which is flagged
+ * in the high bits of the type. The peer address and port are left out since the router rewrites them.
+ * A packet whose checksum does not match is rejected when it is decoded, so it is lost and sent again.
  */
 public class Packet {
 
     public static final int MIN_LEN = 11;
     public static final int MAX_LEN = 1024;
+    public static final int CHECKSUM_LEN = 4;
+    // The peer address and port follow the type and the sequence number
+    public static final int PEER_OFFSET = 5;
+    public static final int PEER_LEN = 6;
+
+    // Any single bit flip of a flagged type gives a type that is neither flagged nor plain
+    private static final int CHECKSUM_FLAG = 0xF0;
+    private static final int MAX_TYPE = 0x0F;
+
+    private static volatile boolean isChecksumEnabled = false;
 
     private final int type;
     private final int sequenceNumber;
@@ -63,18 +78,52 @@ public class Packet {
                 .setPayload(payload);
     }
 
+    /**
+     * Turns the checksum of the packets sent on or off for the whole process. It is off by default, so the packets
+     * sent stay readable by peers that do not know the flag. Packets received are checked whenever they carry one,
+     * so a process without checksums can still talk to one with them.
+     */
+    public static void setChecksumEnabled(boolean isEnabled) {
+        isChecksumEnabled = isEnabled;
+    }
+
     /**
      * Writes a raw presentation of the packet to byte buffer.
      * The order of the buffer should be set as BigEndian.
      */
-    private void write(ByteBuffer buf) {
-        buf.put((byte) type);
+    public void write(ByteBuffer buf) {
+        int typeByte = isChecksumEnabled ? type | CHECKSUM_FLAG : type;
+        buf.put((byte) typeByte);
         buf.putInt((int) sequenceNumber);
         buf.put(peerAddress.getAddress());
         buf.putShort((short) peerPort);
+        if (isChecksumEnabled)
+            buf.putInt(getChecksum(typeByte, sequenceNumber, payload));
         buf.put(payload);
     }
 
+    /**
+     * Rewrites the peer of a raw packet in place. The checksum does not cover the peer, so it stays valid.
+     */
+    public static void writePeer(byte[] bytes, InetSocketAddress peer) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        buf.position(PEER_OFFSET);
+        buf.put(peer.getAddress().getAddress());
+        buf.putShort((short) peer.getPort());
+    }
+
+    // CRC32C is computed with the hardware instructions of the CPU when there are some
+    private static int getChecksum(int typeByte, int sequenceNumber, byte[] payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(typeByte);
+        crc.update(sequenceNumber >>> 24);
+        crc.update(sequenceNumber >>> 16);
+        crc.update(sequenceNumber >>> 8);
+        crc.update(sequenceNumber);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
     /**
      * Create a byte buffer in BigEndian for the packet.
      * The returned buffer is flipped and ready for get operations.
@@ -106,17 +155,31 @@ public class Packet {
 
         Builder builder = new Builder();
 
-        builder.setType(Byte.toUnsignedInt(buf.get()));
-        builder.setSequenceNumber(buf.getInt());
+        int typeByte = Byte.toUnsignedInt(buf.get());
+        boolean hasChecksum = (typeByte & CHECKSUM_FLAG) == CHECKSUM_FLAG;
+        if (!hasChecksum && typeByte > MAX_TYPE) {
+            throw new IOException("Invalid type");
+        }
+        if (hasChecksum && buf.limit() < MIN_LEN + CHECKSUM_LEN) {
+            throw new IOException("Invalid length");
+        }
+        builder.setType(typeByte & MAX_TYPE);
+        int sequenceNumber = buf.getInt();
+        builder.setSequenceNumber(sequenceNumber);
 
         byte[] host = new byte[]{buf.get(), buf.get(), buf.get(), buf.get()};
         builder.setPeerAddress(Inet4Address.getByAddress(host));
         builder.setPortNumber(Short.toUnsignedInt(buf.getShort()));
+        int checksum = hasChecksum ? buf.getInt() : 0;
 
         byte[] payload = new byte[buf.remaining()];
         buf.get(payload);
         builder.setPayload(payload);
 
+        if (hasChecksum && checksum != getChecksum(typeByte, sequenceNumber, payload)) {
+            throw new IOException("Invalid checksum");
+        }
+
         return builder.create();
     }
 
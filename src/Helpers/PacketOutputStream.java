@@ -0,0 +1,69 @@
+package Helpers;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class is an output stream that cuts the bytes written to it into packets of at most MAX_PAYLOAD_SIZE bytes,
+ * numbered from 0 like the packets of buildPackets. A message can be streamed into packet payloads,
+ * through a compressor for instance, without being held whole in memory first.
+ * The last packet is cut by close, after which getPackets returns every packet.
+ */
+public class PacketOutputStream extends OutputStream {
+    private final PacketType packetType;
+    private final int peerPort;
+    private final InetAddress peerAddress;
+
+    private final byte[] buffer = new byte[UDPConnection.MAX_PAYLOAD_SIZE];
+    private int count = 0;
+    private final ArrayList<Packet> packets = new ArrayList<>();
+
+    public PacketOutputStream(PacketType packetType, int peerPort, InetAddress peerAddress) {
+        this.packetType = packetType;
+        this.peerPort = peerPort;
+        this.peerAddress = peerAddress;
+    }
+
+    @Override
+    public void write(int b) {
+        buffer[count++] = (byte) b;
+        if (count == buffer.length)
+            cutPacket();
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            int copied = Math.min(length, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+            if (count == buffer.length)
+                cutPacket();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (count > 0)
+            cutPacket();
+    }
+
+    public ArrayList<Packet> getPackets() {
+        return packets;
+    }
+
+    private void cutPacket() {
+        packets.add(new Packet.Builder()
+                .setType(packetType.value)
+                .setSequenceNumber(packets.size() % UDPConnection.MAX_SEQUENCE_NUMBER)
+                .setPortNumber(peerPort)
+                .setPeerAddress(peerAddress)
+                .setPayload(Arrays.copyOf(buffer, count))
+                .create());
+        count = 0;
+    }
+}
@@ -6,14 +6,17 @@ package Helpers;
 public enum Status {
     OK(200, "OK"),
     CREATED(201, "Created"),
+    PARTIAL_CONTENT(206, "Partial Content"),
     BAD_REQUEST(400, "Bad Request"),
     FORBIDDEN(403, "Forbidden"),
     NOT_FOUND(404, "Not Found"),
+    RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
     INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
     NOT_IMPLEMENTED(501, "Not Implemented"),
     HTTP_VERSION_NOT_SUPPORTED(505, "HTTP Version Not Supported"),
     MOVED_PERMANENTLY(301, "Moved Permanently"),
     FOUND(302, "Found"),
+    NOT_MODIFIED(304, "Not Modified"),
     TEMPORARY_REDIRECT(307, "Temporary Redirect");
 
     final int code;
@@ -0,0 +1,27 @@
+package Helpers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class creates the threads of the tasks that block for their whole run, like the connections of the server
+ * and the clients of httpc bench waiting for their packets.
+ */
+public class Threads {
+    private static final Logger logger = Logger.getLogger(Threads.class.getName());
+
+    /**
+     * Returns an executor that runs each task on a thread of its own. Virtual threads are used when the runtime
+     * provides them (Java 21+), pooled platform threads otherwise.
+     */
+    public static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException exception) {
+            logger.log(Level.INFO, "Virtual threads are not available, tasks run on platform threads");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
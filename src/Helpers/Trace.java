@@ -0,0 +1,198 @@
+package Helpers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.VarHandle;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is the packet trace of the process. Each packet that is sent, received, resent or dropped is
+ * written as a binary record of a few longs in a ring buffer, and a daemon thread formats the records to a file.
+ * When the trace is off, a record is a single volatile read and allocates nothing,
+ * so the calls can stay on the hot path of every connection.
+ * When the dumper falls behind, the oldest records are overwritten and counted as lost rather than blocking a sender.
+ */
+public class Trace {
+    public enum Point {
+        SENT,
+        RECEIVED,
+        RESENT,
+        DROPPED
+    }
+
+    private final static int CAPACITY = 1 << 16;
+    private final static int MASK = CAPACITY - 1;
+    // time, point | type | sequence number, peer address, peer port | payload length
+    private final static int RECORD_LONGS = 4;
+    private final static long DUMP_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final static PacketType[] PACKET_TYPES = PacketType.values();
+    private final static Point[] POINTS = Point.values();
+
+    private static volatile boolean enabled = false;
+
+    private final static long[] records = new long[CAPACITY * RECORD_LONGS];
+    // The stamp of a slot is the claim number of its record plus 1 once the record is complete, 0 while it is written
+    private final static AtomicLongArray stamps = new AtomicLongArray(CAPACITY);
+    private final static AtomicLong head = new AtomicLong();
+
+    private static Writer writer;
+    private static Thread dumper;
+    private static long tail;
+    private static long lostRecords;
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts writing the trace to the given file. Does nothing if the trace is already on.
+     */
+    public static synchronized void start(Path file) throws IOException {
+        if (enabled)
+            return;
+
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        tail = head.get();
+        lostRecords = 0;
+        dumper = new Thread(Trace::dumpUntilStopped, "Trace-dumper");
+        dumper.setDaemon(true);
+        enabled = true;
+        dumper.start();
+    }
+
+    /**
+     * Stops the trace, then writes the records left in the buffer and closes the file.
+     */
+    public static void stop() {
+        Thread stoppedDumper;
+        synchronized (Trace.class) {
+            if (!enabled)
+                return;
+
+            enabled = false;
+            stoppedDumper = dumper;
+        }
+
+        LockSupport.unpark(stoppedDumper);
+        try {
+            stoppedDumper.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void record(Point point, Packet packet) {
+        if (!enabled)
+            return;
+
+        long claim = head.getAndIncrement();
+        int slot = (int) (claim & MASK);
+        int index = slot * RECORD_LONGS;
+
+        // The slot is invalidated before any of its longs change, and stamped again only once they all changed,
+        // so that the dumper never takes a stamp with the longs of another record
+        stamps.setRelease(slot, 0);
+        VarHandle.storeStoreFence();
+        records[index] = System.nanoTime();
+        records[index + 1] = (long) point.ordinal() << 48 | (long) packet.getType() << 32 | (packet.getSequenceNumber() & 0xFFFFFFFFL);
+        records[index + 2] = getAddress(packet.getPeerAddress());
+        records[index + 3] = (long) packet.getPeerPort() << 32 | packet.getPayload().length;
+        stamps.setRelease(slot, claim + 1);
+    }
+
+    // The IPv4 address as an int, without the copy of getAddress(), since the hash code of an Inet4Address is its address
+    private static long getAddress(InetAddress address) {
+        return address instanceof Inet4Address ? address.hashCode() & 0xFFFFFFFFL : -1;
+    }
+
+    // ---- Dumper ----
+
+    private static void dumpUntilStopped() {
+        try {
+            while (enabled) {
+                dump();
+                writer.flush();
+                LockSupport.parkNanos(DUMP_INTERVAL);
+            }
+
+            dump();
+            if (lostRecords > 0)
+                writer.write(lostRecords + " records lost\n");
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            enabled = false;
+        }
+    }
+
+    // Writes the records that are complete, in the order they were claimed
+    private static void dump() throws IOException {
+        StringBuilder line = new StringBuilder();
+        long claimed = head.get();
+
+        while (tail < claimed) {
+            int slot = (int) (tail & MASK);
+            int index = slot * RECORD_LONGS;
+            long stamp = stamps.get(slot);
+
+            if (stamp > tail + 1 || claimed - tail > CAPACITY) {
+                // The record has been overwritten by a newer one
+                long oldest = Math.max(tail + 1, claimed - CAPACITY);
+                lostRecords += oldest - tail;
+                tail = oldest;
+                continue;
+            }
+            if (stamp != tail + 1)
+                // Still being written, it is dumped next time
+                return;
+
+            long time = records[index];
+            long event = records[index + 1];
+            long address = records[index + 2];
+            long portAndLength = records[index + 3];
+
+            // The slot may have been reused while it was read
+            VarHandle.loadLoadFence();
+            if (stamps.get(slot) != stamp)
+                continue;
+
+            line.setLength(0);
+            line.append(time).append(' ')
+                    .append(POINTS[(int) (event >>> 48)]).append(' ')
+                    .append(getPacketType((int) (event >>> 32) & 0xFFFF))
+                    .append(" seq=").append((int) event)
+                    .append(" peer=");
+            appendAddress(line, address);
+            line.append(':').append(portAndLength >>> 32)
+                    .append(" len=").append((int) portAndLength)
+                    .append('\n');
+            writer.append(line);
+            tail++;
+        }
+    }
+
+    private static Object getPacketType(int type) {
+        return type < PACKET_TYPES.length ? PACKET_TYPES[type] : type;
+    }
+
+    private static void appendAddress(StringBuilder line, long address) {
+        if (address < 0) {
+            line.append('?');
+            return;
+        }
+
+        line.append(address >>> 24 & 0xFF).append('.')
+                .append(address >>> 16 & 0xFF).append('.')
+                .append(address >>> 8 & 0xFF).append('.')
+                .append(address & 0xFF);
+    }
+}
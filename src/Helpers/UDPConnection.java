@@ -1,107 +1,403 @@
 package Helpers;
 
 import Client.HttpClientLibrary;
+import Helpers.Events.FinTimeoutEvent;
+import Helpers.Events.PacketRetransmittedEvent;
+import Helpers.Events.WindowStalledEvent;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.*;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * This class holds the transport state of one connection: the selective repeat windows of the sender and the receiver.
+ * A connection either reads its own socket (client), takes the packets that were demultiplexed to it (server),
+ * or is driven packet by packet by an event loop through the non-blocking steps of the handshake and selective repeat.
+ * Its state is only touched by the thread that owns it: the timers of a blocking connection run on the thread that
+ * receives its packets, while it waits for them, and the timers of an event-loop connection run on the loop.
+ * A connection times out when a packet was sent MAX_RETRIES times without answer, or when a blocking connection
+ * received nothing for the idle timeout.
+ * The ACKs of DATA and FIN packets carry the receive window of the receiver, how many packets past the last one it
+ * received in order it has room for, and the sender never has more packets than that in flight. Each advertisement is
+ * numbered, so that the sender ignores one that arrives after a newer one. While the window is closed the sender probes
+ * it with the next packet, which the receiver answers with its current window when it has no room for it.
+ */
 public class UDPConnection {
     public final static int WINDOW_SIZE = 3;
     public final static int MAX_SEQUENCE_NUMBER =10000 * WINDOW_SIZE;
-    public final static int MAX_PAYLOAD_SIZE = Packet.MAX_LEN - Packet.MIN_LEN;
+    public final static int MAX_PAYLOAD_SIZE = Packet.MAX_LEN - Packet.MIN_LEN - Packet.CHECKSUM_LEN;
     public final static long DELAY_BEFORE_TIMEOUT = 10000;
-    public final static SocketAddress routerAddress = new InetSocketAddress("localhost", 3000);
+    // How many times a packet is sent again before the peer is considered gone
+    public final static int MAX_RETRIES = 5;
+    public final static SocketAddress DEFAULT_ROUTER_ADDRESS = new InetSocketAddress("localhost", 3000);
 
     private static final Logger logger = Logger.getLogger(UDPConnection.class.getName());
 
+    private static boolean isPacingEnabled = false;
+
+    // All connections share one timer thread instead of starting a Timer thread per packet sent
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "UDPConnection-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DatagramSocket socket;
+    private final BlockingQueue<Packet> inbox;
+    private final DatagramBatch batch;
+    // Null for a blocking connection, whose timers wait in pendingTimers until its thread runs them
+    private final Executor timerExecutor;
+    private final PriorityQueue<PendingTimer> pendingTimers = new PriorityQueue<>();
+    private volatile boolean isClosed = false;
+    private Runnable timeoutListener = () -> { };
+    private SocketAddress routerAddress = DEFAULT_ROUTER_ADDRESS;
+    private int windowSize = WINDOW_SIZE;
+    private long retransmissionTimeout = DELAY_BEFORE_TIMEOUT;
+
     // Selective repeat
-    private static int windowHead = 0;
-    private static int windowTail = UDPConnection.WINDOW_SIZE - 1;
-    private static ArrayList<Boolean> ackList;
-    private static ArrayList<Boolean> sentList;
+    private int windowHead = 0;
+    private int windowTail = windowSize - 1;
+    private ArrayList<Packet> packetsToSend;
+    private ArrayList<Boolean> ackList;
+    private ArrayList<Boolean> sentList;
+    private int peerPort;
+    private InetAddress peerAddress;
+    // The receive window the peer advertised in its newest ACK, and the number of that advertisement
+    private int peerReceiveWindow = Integer.MAX_VALUE;
+    private int peerWindowAdvertisement = -1;
+    private boolean isWindowProbeScheduled = false;
+    private boolean isACKReceivedSinceProbe = false;
+
+    // Pacing: DATA packets are spread over the round-trip time instead of sending a whole window at once
+    private long[] sendTimes;
+    private long smoothedRTT = 0;
+    private long nextPacedSendTime = 0;
+    private long transferStartTime = 0;
+    private WindowStalledEvent windowStall;
 
     // Receiver receives packets from sender
-    private static int rcv_base = 0;
-    private static int rcv_tail = UDPConnection.WINDOW_SIZE - 1;
-    private static ArrayList<Packet> finalPacketsInOrder = new ArrayList<>();
-    private static ArrayList<Packet> packetsInBuffer = new ArrayList<>(MAX_SEQUENCE_NUMBER);
+    private int rcv_base = 0;
+    private int rcv_tail = windowSize - 1;
+    private ArrayList<Packet> finalPacketsInOrder = new ArrayList<>();
+    private ArrayList<Packet> packetsInBuffer = newReceiveBuffer();
+    private long firstDataReceivedTime = 0;
+    private Consumer<Packet> packetConsumer;
+    private IntSupplier receiveWindow = () -> Integer.MAX_VALUE;
+    private int advertisedReceiveWindow;
+    private int windowAdvertisements = 0;
+    private int dataPeerPort;
+    private InetAddress dataPeerAddress;
+
+    private volatile boolean ACKtoFINReceived = false;
+
+    // Only incremented by the timers of this connection, which run on the thread that owns it
+    private volatile int retransmissions = 0;
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
+    private long packetsSent = 0;
+    // How full the window is each time it is sent
+    private long windowSamples = 0;
+    private long packetsInFlight = 0;
+
+    /**
+     * Creates a connection that reads its packets directly from the given socket.
+     * Its timers run on the thread that receives its packets.
+     */
+    public UDPConnection(DatagramSocket socket) {
+        this(socket, null);
+    }
 
-    private static boolean ACKtoFINReceived = false;
+    /**
+     * Creates a connection that sends on the given socket but takes its packets from the inbox,
+     * which is filled by whoever reads the socket on behalf of several connections.
+     * Its timers run on the thread that receives its packets.
+     */
+    public UDPConnection(DatagramSocket socket, BlockingQueue<Packet> inbox) {
+        this(socket, inbox, null, null);
+    }
 
-    // -----------BUILD PACKETS---------------------
+    /**
+     * Creates a connection owned by an event loop. It queues its packets in the loop's batch and never blocks:
+     * the loop feeds it packets and its timers expire on the loop thread, so its state is only touched by that thread.
+     */
+    public UDPConnection(DatagramBatch batch, Executor eventLoop) {
+        this(null, null, batch, eventLoop);
+    }
 
-    public static ArrayList<Packet> buildPackets(String entirePayload, PacketType packetType, int peer_port, InetAddress peer_address) {
-        // Note: Payload of each packet should be between 0 and 1013 bytes
-        ArrayList<Packet> arrayOfPackets = new ArrayList<>();
-        byte[] entirePayloadInBytes = entirePayload.getBytes();
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(entirePayloadInBytes);
-        byte[] buffer = new byte[UDPConnection.MAX_PAYLOAD_SIZE];
-        byte[] payload;
-        int len;
-        int counter = 0;
-        int counterSequenceNumber = 0;
+    private UDPConnection(DatagramSocket socket, BlockingQueue<Packet> inbox, DatagramBatch batch, Executor timerExecutor) {
+        this.socket = socket;
+        this.inbox = inbox;
+        this.batch = batch;
+        this.timerExecutor = timerExecutor;
+    }
 
-        try {
-            while ((len = byteArrayInputStream.read(buffer)) > 0) {
-                payload = Arrays.copyOfRange(entirePayloadInBytes, counter, counter + len);
-                Packet packet = buildPacket(packetType, payload, peer_port, peer_address);
-                packet = packet.toBuilder().setSequenceNumber(counterSequenceNumber % MAX_SEQUENCE_NUMBER).create();
-                arrayOfPackets.add(packet);
-                counterSequenceNumber++;
-                counter = counter + len;
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Runs the task once after the retransmission timeout, on the thread that owns this connection,
+     * unless the connection is closed by then.
+     */
+    public void startTimer(Runnable task) {
+        startTimer(task, TimeUnit.MILLISECONDS.toNanos(retransmissionTimeout));
+    }
+
+    /**
+     * Runs the task once after the given delay, on the thread that owns this connection, unless the connection is closed by then.
+     */
+    public void startTimer(Runnable task, long delayInNanos) {
+        if (timerExecutor == null) {
+            // Run by receivePacket, which only waits for the next packet until the first of them expires
+            pendingTimers.add(new PendingTimer(System.nanoTime() + delayInNanos, task));
+            return;
         }
 
-        return arrayOfPackets;
+        // The shared timer thread only measures the delay, the task itself runs on the event loop
+        timer.schedule(() -> timerExecutor.execute(() -> {
+            if (!isClosed)
+                task.run();
+        }), delayInNanos, TimeUnit.NANOSECONDS);
     }
 
-    private static Packet buildPacket(PacketType packetType, byte[] payload, int peer_port, InetAddress peer_address) {
-        return new Packet.Builder()
-                .setType(packetType.value)
-                .setPortNumber(peer_port)
-                .setPeerAddress(peer_address)
-                .setPayload(payload)
-                .create();
+    private void runExpiredTimers() {
+        PendingTimer pendingTimer;
+        while (!isClosed && (pendingTimer = pendingTimers.peek()) != null && pendingTimer.deadline - System.nanoTime() <= 0) {
+            pendingTimers.poll();
+            pendingTimer.task.run();
+        }
+    }
+
+    /**
+     * Returns true while a packet that was sent the given number of times already can be sent again.
+     * After MAX_RETRIES the peer is considered gone and the connection times out.
+     */
+    public boolean canRetry(int retries) {
+        if (retries < MAX_RETRIES)
+            return true;
+
+        timeOut();
+        return false;
+    }
+
+    /**
+     * Gives up on the peer, which stopped answering: the connection is closed and the timeout listener runs.
+     */
+    public void timeOut() {
+        if (isClosed)
+            return;
+
+        logger.info("Connection timed out");
+        close();
+        timeoutListener.run();
+    }
+
+    /**
+     * Sets what runs when the connection times out, on the thread that owns the connection.
+     */
+    public void setTimeoutListener(Runnable timeoutListener) {
+        this.timeoutListener = timeoutListener;
+    }
+
+    /**
+     * Stops the timers of the connection. Its blocking receives return null from now on.
+     */
+    public void close() {
+        isClosed = true;
+        pendingTimers.clear();
+    }
+
+    public boolean isClosed() {
+        return isClosed;
+    }
+
+    // How long a blocking connection waits for a packet before it times out, the time the peer takes to give up
+    private long getIdleTimeout() {
+        return retransmissionTimeout * (MAX_RETRIES + 1);
+    }
+
+    /**
+     * Sets the router that the packets of this connection go through.
+     * With null the connection is direct: packets go straight to the peer in their header, skipping the router hop.
+     */
+    public void setRouterAddress(SocketAddress routerAddress) {
+        this.routerAddress = routerAddress;
+    }
+
+    public boolean isDirect() {
+        return routerAddress == null;
+    }
+
+    /**
+     * Sets how many packets are in flight at once, WINDOW_SIZE by default. Both peers must use the same window size,
+     * and it has to stay below half of MAX_SEQUENCE_NUMBER so that the receiver can tell new packets from old ones.
+     * It can only be changed between transfers.
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1 || windowSize > MAX_SEQUENCE_NUMBER / 2)
+            throw new IllegalArgumentException("Invalid window size " + windowSize);
+
+        this.windowSize = windowSize;
+        windowTail = windowHead + windowSize - 1;
+        rcv_tail = (rcv_base + windowSize - 1) % MAX_SEQUENCE_NUMBER;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets how long in milliseconds a packet waits for its ACK before it is sent again, DELAY_BEFORE_TIMEOUT by default.
+     */
+    public void setRetransmissionTimeout(long retransmissionTimeout) {
+        this.retransmissionTimeout = retransmissionTimeout;
+    }
+
+    /**
+     * Returns how many DATA and FIN packets were sent again after a timeout.
+     */
+    public int getRetransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * Returns the payload bytes of the DATA packets handed to selective repeat, not counting retransmissions.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns how many DATA packets were handed to selective repeat, not counting retransmissions.
+     */
+    public long getPacketsSent() {
+        return packetsSent;
+    }
+
+    /**
+     * Returns the share of the window, between 0 and 1, that was in flight on average each time the window was sent.
+     */
+    public double getWindowUtilization() {
+        return windowSamples == 0 ? 0 : (double) packetsInFlight / (windowSamples * windowSize);
+    }
+
+    /**
+     * Returns the payload bytes of the DATA packets received in order.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns the System.nanoTime of the first DATA packet received, 0 when none was received yet.
+     */
+    public long getFirstDataReceivedTime() {
+        return firstDataReceivedTime;
+    }
+
+    /**
+     * Hands every DATA packet to the consumer as soon as it is in order, instead of keeping them all until the FIN.
+     */
+    public void setPacketConsumer(Consumer<Packet> packetConsumer) {
+        this.packetConsumer = packetConsumer;
+    }
+
+    /**
+     * Sets how many packets past the last one received in order are accepted, at most the window size.
+     * It is read each time a DATA packet arrives and advertised in its ACK, so that the sender does not send
+     * more than the application of the receiver has room for. The window size by default.
+     */
+    public void setReceiveWindow(IntSupplier receiveWindow) {
+        this.receiveWindow = receiveWindow;
+    }
+
+    private int getReceiveWindow() {
+        return Math.max(0, Math.min(windowSize, receiveWindow.getAsInt()));
+    }
+
+    /**
+     * Tells the sender that the receive window opened, once the application consumed what it got.
+     * Nothing is sent while the window is not larger than the one advertised last.
+     */
+    public void updateReceiveWindow() {
+        if (dataPeerAddress == null || getReceiveWindow() <= advertisedReceiveWindow)
+            return;
+
+        // The ACK of the last packet received in order, again
+        sendDataACK(rcv_base, dataPeerPort, dataPeerAddress);
+    }
+
+    /**
+     * Turns pacing of DATA packets on or off for every connection.
+     * Paced packets are spread over the smoothed RTT, a window of packets per RTT, instead of leaving in a burst.
+     * They are sent by the thread that owns the connection, like its other timers.
+     */
+    public static void setPacingEnabled(boolean isEnabled) {
+        isPacingEnabled = isEnabled;
+    }
+
+    // -----------BUILD PACKETS---------------------
+
+    public static ArrayList<Packet> buildPackets(String entirePayload, PacketType packetType, int peer_port, InetAddress peer_address) {
+        return buildPackets(entirePayload.getBytes(), packetType, peer_port, peer_address);
+    }
+
+    public static ArrayList<Packet> buildPackets(byte[] entirePayload, PacketType packetType, int peer_port, InetAddress peer_address) {
+        // Note: Payload of each packet should be between 0 and MAX_PAYLOAD_SIZE (1009) bytes
+        PacketOutputStream packetStream = new PacketOutputStream(packetType, peer_port, peer_address);
+        packetStream.write(entirePayload, 0, entirePayload.length);
+        packetStream.close();
+        return packetStream.getPackets();
     }
 
     // -----------FLAGS---------------------
 
-    public static void sendSYN(int randomSequenceNumber, int peer_port, InetAddress peer_address, DatagramSocket socket) {
+    public void sendSYN(int randomSequenceNumber, int peer_port, InetAddress peer_address) {
         byte[] payload = {};
-        send(PacketType.SYN, randomSequenceNumber, peer_port, peer_address, socket, payload);
+        send(PacketType.SYN, randomSequenceNumber, peer_port, peer_address, payload);
     }
 
-    public static void sendACK(int incrementedSequenceNumber, int peer_port, InetAddress peer_address, DatagramSocket socket) {
+    public void sendACK(int incrementedSequenceNumber, int peer_port, InetAddress peer_address) {
         byte[] payload = {};
-        send(PacketType.ACK, incrementedSequenceNumber, peer_port, peer_address, socket, payload);
+        send(PacketType.ACK, incrementedSequenceNumber, peer_port, peer_address, payload);
     }
 
-    public static void sendNAK(int peer_port, InetAddress peer_address, DatagramSocket socket) {
+    // The ACK of a DATA or FIN packet, with the receive window and the number of this advertisement as its payload
+    private void sendDataACK(int incrementedSequenceNumber, int peer_port, InetAddress peer_address) {
+        advertisedReceiveWindow = getReceiveWindow();
+        ByteBuffer byteBuffer = ByteBuffer.allocate(2 * Integer.BYTES);
+        byteBuffer.putInt(advertisedReceiveWindow);
+        byteBuffer.putInt(windowAdvertisements++);
+        send(PacketType.ACK, incrementedSequenceNumber, peer_port, peer_address, byteBuffer.array());
+    }
+
+    public void sendNAK(int peer_port, InetAddress peer_address) {
         byte[] payload = {};
-        send(PacketType.NAK, 0, peer_port, peer_address, socket, payload);
+        send(PacketType.NAK, 0, peer_port, peer_address, payload);
     }
 
-    public static void sendFIN(int randomSequenceNumber, int peer_port, InetAddress peer_address, DatagramSocket socket) {
+    public void sendFIN(int randomSequenceNumber, int peer_port, InetAddress peer_address) {
         byte[] payload = {};
-        send(PacketType.FIN, randomSequenceNumber, peer_port, peer_address, socket, payload);
+        send(PacketType.FIN, randomSequenceNumber, peer_port, peer_address, payload);
     }
 
-    public static void sendSYN_ACK(int incrementedSequenceNumber, int randomSequenceNumber, int peer_port, InetAddress peer_address, DatagramSocket socket) {
+    public void sendSYN_ACK(int incrementedSequenceNumber, int randomSequenceNumber, int peer_port, InetAddress peer_address) {
         // Send acknowledgment as payload and new number to synchronize as sequence number
         ByteBuffer byteBuffer = ByteBuffer.allocate(Integer.BYTES);
         byteBuffer.putInt(incrementedSequenceNumber);
         byte[] payload = byteBuffer.array();
-        send(PacketType.SYN_ACK, randomSequenceNumber, peer_port, peer_address, socket, payload);
+        send(PacketType.SYN_ACK, randomSequenceNumber, peer_port, peer_address, payload);
     }
 
 
-    private static void send(PacketType type, int sequenceNumber, int peer_port, InetAddress peer_address, DatagramSocket socket, byte[] payload) {
+    private void send(PacketType type, int sequenceNumber, int peer_port, InetAddress peer_address, byte[] payload) {
         Packet packet = new Packet.Builder()
                 .setType(type.value)
                 .setSequenceNumber(sequenceNumber)
@@ -110,49 +406,194 @@ public class UDPConnection {
                 .setPayload(payload)
                 .create();
 
-        sendPacket(packet, socket);
+        sendPacket(packet);
     }
 
-    private static void sendPacket(Packet packet, DatagramSocket socket) {
+    private void sendPacket(Packet packet) {
+        Trace.record(Trace.Point.SENT, packet);
+        Capture.recordSent(packet);
+
         // Send packet
-        byte[] packetToBytes = packet.toBytes();
         try {
-            socket.send(new DatagramPacket(packetToBytes, packetToBytes.length, routerAddress));
+            if (batch != null) {
+                // Sent with the rest of the batch when the event loop flushes it
+                batch.send(packet, getDestination(packet));
+                return;
+            }
+
+            byte[] packetToBytes = packet.toBytes();
+            socket.send(new DatagramPacket(packetToBytes, packetToBytes.length, getDestination(packet)));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private SocketAddress getDestination(Packet packet) {
+        return isDirect() ? new InetSocketAddress(packet.getPeerAddress(), packet.getPeerPort()) : routerAddress;
+    }
+
     public static Packet receivePacket(DatagramSocket socket) {
-        DatagramPacket datagramPacket;
+        return receivePacket(socket, false);
+    }
+
+    /**
+     * Reads the next packet of the socket. When packets come directly from the peer,
+     * the header is rewritten with the sender like the router would have done.
+     */
+    public static Packet receivePacket(DatagramSocket socket, boolean isDirect) {
         try {
-            byte[] buff = new byte[Packet.MAX_LEN];
-            datagramPacket = new DatagramPacket(buff, Packet.MAX_LEN);
-            socket.receive(datagramPacket);
-            return Packet.fromBytes(datagramPacket.getData());
+            return readPacket(socket, isDirect);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Reads the next packet that is not corrupted, a SocketTimeoutException is thrown past the timeout of the socket
+    private static Packet readPacket(DatagramSocket socket, boolean isDirect) throws IOException {
+        byte[] buff = new byte[Packet.MAX_LEN];
+        while (true) {
+            DatagramPacket datagramPacket = new DatagramPacket(buff, Packet.MAX_LEN);
+            socket.receive(datagramPacket);
+
+            try {
+                Packet packet = Packet.fromBytes(Arrays.copyOf(datagramPacket.getData(), datagramPacket.getLength()));
+                if (isDirect)
+                    packet = fromSender(packet, datagramPacket.getSocketAddress());
+
+                Trace.record(Trace.Point.RECEIVED, packet);
+                Capture.recordReceived(packet);
+                return packet;
+            } catch (IOException e) {
+                // A corrupted packet is lost like on the network and the sender sends it again
+                logger.log(Level.INFO, "Dropped malformed packet", e);
+            }
         }
+    }
+
+    /**
+     * Returns the packet with the given sender as its peer.
+     */
+    public static Packet fromSender(Packet packet, SocketAddress sender) {
+        InetSocketAddress senderAddress = (InetSocketAddress) sender;
+        return packet.toBuilder()
+                .setPeerAddress(senderAddress.getAddress())
+                .setPortNumber(senderAddress.getPort())
+                .create();
+    }
+
+    /**
+     * Receives the next packet addressed to this connection, and runs the timers that expire while it waits.
+     * Returns null once the connection is closed: when it timed out, when nothing came for the idle timeout,
+     * or when the thread was interrupted.
+     */
+    public Packet receivePacket() {
+        long idleDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getIdleTimeout());
+        while (true) {
+            runExpiredTimers();
+            if (isClosed)
+                return null;
+
+            long timeout = idleDeadline - System.nanoTime();
+            if (timeout <= 0) {
+                timeOut();
+                return null;
+            }
+
+            PendingTimer nextTimer = pendingTimers.peek();
+            if (nextTimer != null)
+                timeout = Math.min(timeout, nextTimer.deadline - System.nanoTime());
+
+            // A socket waits at least a millisecond, paced packets can be due sooner than that
+            if (inbox == null && timeout < TimeUnit.MILLISECONDS.toNanos(1)) {
+                LockSupport.parkNanos(timeout);
+                continue;
+            }
 
-        return null;
+            Packet packet = receivePacket(Math.max(timeout, 0));
+            if (packet != null)
+                return packet;
+        }
     }
 
-    public static void receiveAndVerifyFinalACK(int sequenceNumberToSynchronize, DatagramSocket socket) {
-        Packet packetACK;
+    // Waits at most the timeout for a packet, returns null when none came
+    private Packet receivePacket(long timeoutInNanos) {
+        if (inbox != null) {
+            try {
+                return inbox.poll(timeoutInNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                return null;
+            }
+        }
+
+        try {
+            // A timeout of 0 would wait forever
+            socket.setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutInNanos)));
+            return readPacket(socket, isDirect());
+        } catch (SocketTimeoutException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the ACK of the final FIN. The peer only starts sending its own DATA once it got the FIN,
+     * so a DATA packet means the ACK was lost: it completes the transfer and is kept for the next receive.
+     * Late ACKs of DATA packets and window updates are ignored. Returns false when the connection timed out first.
+     */
+    public boolean receiveAndVerifyFinalACK(int sequenceNumberToSynchronize) {
+        Packet packet;
         do {
-            packetACK = UDPConnection.receivePacket(socket);
-        } while(packetACK.getType() != PacketType.ACK.value);
+            packet = receivePacket();
+            if (packet == null)
+                return false;
+        } while(!receiveFinalACK(packet, sequenceNumberToSynchronize));
+        return true;
+    }
+
+    /**
+     * Non-blocking step of receiveAndVerifyFinalACK for a connection driven packet by packet.
+     * Returns true once the transfer is complete, on the ACK of the FIN or on the first DATA packet of the peer.
+     * Late ACKs of DATA packets are ignored.
+     */
+    public boolean receiveFinalACK(Packet packet, int finalSequenceNumber) {
+        if (packet.getType() == PacketType.DATA.value) {
+            receiveDataAfterFIN(packet);
+            return true;
+        }
 
+        if (packet.getType() == PacketType.ACK.value && packet.getSequenceNumber() == finalSequenceNumber + 1) {
+            verifyFinalACK(packet, finalSequenceNumber);
+            return true;
+        }
+        return false;
+    }
+
+    private void receiveDataAfterFIN(Packet packet) {
+        ACKtoFINReceived = true;
+        recordTransfer();
+        receiveData(packet);
+    }
+
+    public void verifyFinalACK(Packet packetACK, int sequenceNumberToSynchronize) {
         ACKtoFINReceived = true;
+        recordTransfer();
 
         logger.info("Received a ACK packet");
         logger.info("Verifying ACK...");
         if (packetACK.getSequenceNumber() != sequenceNumberToSynchronize + 1) {
-            logger.info("Unexpected ACK sequence number " + packetACK.getSequenceNumber() + "instead of " + (sequenceNumberToSynchronize + 1));
-            UDPConnection.sendNAK(packetACK.getPeerPort(), packetACK.getPeerAddress(), socket);
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Unexpected ACK sequence number " + packetACK.getSequenceNumber() + "instead of " + (sequenceNumberToSynchronize + 1));
+            sendNAK(packetACK.getPeerPort(), packetACK.getPeerAddress());
 //            System.exit(-1);
         }
-        logger.info("ACK is verified: {seq sent: " + sequenceNumberToSynchronize + ", seq received: " + packetACK.getSequenceNumber() + "}");
+        if (logger.isLoggable(Level.INFO))
+            logger.info("ACK is verified: {seq sent: " + sequenceNumberToSynchronize + ", seq received: " + packetACK.getSequenceNumber() + "}");
     }
 
 //    public static void verifyPacketType(PacketType expectedPacketType, Packet packet, DatagramSocket socket) {
@@ -170,88 +611,267 @@ public class UDPConnection {
     }
 
     // --------------SELECTIVE REPEAT------------------------------
-    public static void sendUsingSelectiveRepeat(ArrayList<Packet> packets, int peerPort, InetAddress peerAddress, DatagramSocket socket) {
+
+    /**
+     * Sends the packets and the FIN that ends them, and waits for the ACK of the FIN.
+     * Returns false when the connection timed out first.
+     */
+    public boolean sendUsingSelectiveRepeat(ArrayList<Packet> packets, int peerPort, InetAddress peerAddress) {
+        startSelectiveRepeat(packets, peerPort, peerAddress);
+
+        try {
+            // Send data packets using selective repeat
+            while (!isEverythingAcknowledged()) {
+                Packet response = receivePacket();
+                if (response == null)
+                    return false;
+                receiveACK(response);
+                sendWindow();
+            }
+
+            // Wait for ACK from server
+            int finalSequenceNumber = sendFinalFIN();
+            return receiveAndVerifyFinalACK(finalSequenceNumber);
+        } finally {
+            resetVars();
+        }
+    }
+
+    /**
+     * Sets up the sender window for the given packets and sends the first window.
+     */
+    public void startSelectiveRepeat(ArrayList<Packet> packets, int peerPort, InetAddress peerAddress) {
         // Set up
+        transferStartTime = System.nanoTime();
+        this.packetsToSend = packets;
+        this.peerPort = peerPort;
+        this.peerAddress = peerAddress;
+        peerReceiveWindow = Integer.MAX_VALUE;
+        peerWindowAdvertisement = -1;
         ackList = new ArrayList<>(Arrays.asList(new Boolean[packets.size()]));
         sentList = new ArrayList<>(Arrays.asList(new Boolean[packets.size()]));
+        sendTimes = new long[packets.size()];
         Collections.fill(ackList, Boolean.FALSE);
         Collections.fill(sentList, Boolean.FALSE);
+        for (Packet packet : packets)
+            bytesSent += packet.getPayload().length;
+        packetsSent += packets.size();
 
-        // Send data packets using selective repeat
-        while (ackList.contains(false)) {
-            sendWindow(packets, socket);
-
-            Packet response = receivePacket(socket);
-            if (response != null && response.getType() == PacketType.ACK.value) {
-                ackList.set((int) response.getSequenceNumber() - 1, true);
-                // Slide window
-                if (windowTail < ackList.size() && ackList.get(windowHead)) {
-                    int newWindowHead = windowHead;
-                    int newWindowTail = windowTail;
-                    for (int i = windowHead; i <= windowTail; i++) {
-                        if (ackList.get(i)) {
-                            newWindowHead += 1;
-                            newWindowTail += 1;
-                        } else {
-                            break;
-                        }
+        sendWindow();
+    }
+
+    public boolean isEverythingAcknowledged() {
+        return !ackList.contains(false);
+    }
+
+    /**
+     * Marks the packet acknowledged by the given ACK and slides the window.
+     */
+    public void receiveACK(Packet response) {
+        if (response.getType() == PacketType.ACK.value) {
+            isACKReceivedSinceProbe = true;
+            receiveWindowAdvertisement(response);
+
+            int index = response.getSequenceNumber() - 1;
+            if (index < 0 || index >= ackList.size())
+                return;
+
+            if (!ackList.get(index))
+                sampleRTT(index);
+            ackList.set(index, true);
+            // Slide window
+            if (windowTail < ackList.size() && ackList.get(windowHead)) {
+                int newWindowHead = windowHead;
+                int newWindowTail = windowTail;
+                for (int i = windowHead; i <= windowTail; i++) {
+                    if (ackList.get(i)) {
+                        newWindowHead += 1;
+                        newWindowTail += 1;
+                    } else {
+                        break;
                     }
-                    windowHead = newWindowHead;
-                    windowTail = newWindowTail;
+                }
+                windowHead = newWindowHead;
+                windowTail = newWindowTail;
+
+                if (windowStall != null) {
+                    windowStall.complete(windowSize, Math.max(0, ackList.size() - 1 - windowTail));
+                    windowStall = null;
                 }
             }
         }
+    }
+
+    // A window update acknowledges no new packet. An ACK that was reordered or duplicated carries an older window
+    private void receiveWindowAdvertisement(Packet packetACK) {
+        if (packetACK.getPayload().length < 2 * Integer.BYTES)
+            return;
+
+        ByteBuffer payload = ByteBuffer.wrap(packetACK.getPayload());
+        int window = payload.getInt();
+        int advertisement = payload.getInt();
+        if (advertisement < peerWindowAdvertisement)
+            return;
 
+        peerReceiveWindow = window;
+        peerWindowAdvertisement = advertisement;
+    }
+
+    /**
+     * Sends the FIN that tells the peer all data was sent and keeps resending it until its ACK is verified.
+     * Returns the sequence number of the FIN.
+     */
+    public int sendFinalFIN() {
         // Send FIN to let server know that client is done sending data
         int finalSequenceNumber = UDPConnection.getRandomSequenceNumber();
         ACKtoFINReceived = false;
-        sendFIN(finalSequenceNumber, peerPort, peerAddress, socket);
+        sendFIN(finalSequenceNumber, peerPort, peerAddress);
 
         // Start a timer
-        Timer timer = new Timer();
-        timer.schedule(new ResendFin(finalSequenceNumber, peerPort, peerAddress, socket), UDPConnection.DELAY_BEFORE_TIMEOUT);
-
-        // Wait for ACK from server
-        receiveAndVerifyFinalACK(finalSequenceNumber, socket);
+        startTimer(new ResendFin(finalSequenceNumber, peerPort, peerAddress, 0));
 
-        resetVars();
+        return finalSequenceNumber;
     }
 
-    private static void sendWindow(ArrayList<Packet> packets, DatagramSocket socket) {
-        for (int i = windowHead; i <= windowTail && i < ackList.size(); i++) {
+    public void sendWindow() {
+        int inFlight = 0;
+        // The packets past the receive window of the peer wait until it opens
+        for (int i = windowHead; i <= windowTail && i < ackList.size() && i - windowHead < peerReceiveWindow; i++) {
             if (!ackList.get(i) && !sentList.get(i)) { // TODO: do we actually need ackList check here?
-                Packet packet = packets.get(i);
-                sendPacket(packets.get(i), socket);
-
-                // Start a timer
-                Timer timer = new Timer();
-                timer.schedule(new ResendPacket(packet, i, socket), DELAY_BEFORE_TIMEOUT);
+                long delayInNanos = getPacingDelay();
+                if (delayInNanos > 0)
+                    startTimer(new SendPacedPacket(i), delayInNanos);
+                else
+                    sendData(i);
 
                 sentList.set(i, true);
             }
+            if (!ackList.get(i))
+                inFlight++;
+        }
+        windowSamples++;
+        packetsInFlight += inFlight;
+
+        // With nothing in flight, only a window update of the peer would restart the transfer, and it can be lost
+        if (windowHead < ackList.size() && !sentList.get(windowHead) && !isWindowProbeScheduled) {
+            isWindowProbeScheduled = true;
+            isACKReceivedSinceProbe = false;
+            long delayInNanos = TimeUnit.MILLISECONDS.toNanos(retransmissionTimeout);
+            if (smoothedRTT > 0)
+                delayInNanos = Math.min(delayInNanos, 2 * smoothedRTT);
+            startTimer(new ProbeWindow(delayInNanos, 0), delayInNanos);
+        }
+
+        // The whole window is in flight and packets are waiting behind it until an ACK slides it
+        if (windowStall == null && windowTail < ackList.size() - 1)
+            windowStall = WindowStalledEvent.start();
+    }
+
+    private void sendData(int index) {
+        Packet packet = packetsToSend.get(index);
+        sendTimes[index] = System.nanoTime();
+        sendPacket(packet);
+
+        // Start a timer
+        startTimer(new ResendPacket(packet, index, 0));
+    }
+
+    // Returns how long the next DATA packet has to wait so that consecutive packets are SRTT / window size apart
+    private long getPacingDelay() {
+        if (!isPacingEnabled || smoothedRTT == 0)
+            return 0;
+
+        long now = System.nanoTime();
+        long sendTime = Math.max(now, nextPacedSendTime);
+        nextPacedSendTime = sendTime + smoothedRTT / windowSize;
+        return sendTime - now;
+    }
+
+    // Updates the smoothed RTT like TCP does (RFC 6298), ignoring retransmitted packets whose ACK is ambiguous
+    private void sampleRTT(int index) {
+        if (sendTimes[index] <= 0)
+            return;
+
+        long sample = System.nanoTime() - sendTimes[index];
+        smoothedRTT = smoothedRTT == 0 ? sample : (7 * smoothedRTT + sample) / 8;
+        Latency.PACKET_RTT.record(sample);
+    }
+
+    // A transfer lasts from its first DATA packet to the ACK of its FIN. The handshake ACK is verified outside of a transfer
+    private void recordTransfer() {
+        if (transferStartTime == 0)
+            return;
+
+        Latency.TRANSFER.recordSince(transferStartTime);
+        transferStartTime = 0;
+    }
+
+    // Sends a packet once its paced time came, on the thread of the connection like the rest of the window
+    private class SendPacedPacket extends TimerTask {
+        private int indexInAckList;
+
+        SendPacedPacket(int indexInAckList) {
+            this.indexInAckList = indexInAckList;
+        }
+
+        public void run() {
+            if (ackList != null && !ackList.get(indexInAckList))
+                sendData(indexInAckList);
+        }
+    }
+
+    // Sends the first packet past a closed receive window, the receiver accepts it once it has room again and
+    // answers with its window otherwise. The probes back off from twice the RTT up to the retransmission timeout,
+    // and only count as retries while no ACK comes back
+    private class ProbeWindow extends TimerTask {
+        private long delayInNanos;
+        private int retries;
+
+        ProbeWindow(long delayInNanos, int retries) {
+            this.delayInNanos = delayInNanos;
+            this.retries = retries;
+        }
+
+        public void run() {
+            isWindowProbeScheduled = false;
+            if (ackList == null || windowHead >= ackList.size() || sentList.get(windowHead) || ackList.get(windowHead))
+                return;
+
+            int probeRetries = isACKReceivedSinceProbe ? 0 : retries + 1;
+            if (!canRetry(probeRetries))
+                return;
+
+            sendPacket(packetsToSend.get(windowHead));
+
+            isWindowProbeScheduled = true;
+            isACKReceivedSinceProbe = false;
+            long nextDelayInNanos = Math.min(2 * delayInNanos, TimeUnit.MILLISECONDS.toNanos(retransmissionTimeout));
+            startTimer(new ProbeWindow(nextDelayInNanos, probeRetries), nextDelayInNanos);
         }
     }
 
-    private static class ResendPacket extends TimerTask {
+    private class ResendPacket extends TimerTask {
         private Packet packetToBeSentAgain;
         private int indexInAckList;
-        private DatagramSocket socket;
+        private int retries;
 
-        ResendPacket(Packet packetToBeSentAgain, int indexInAckList, DatagramSocket socket) {
+        ResendPacket(Packet packetToBeSentAgain, int indexInAckList, int retries) {
             this.packetToBeSentAgain = packetToBeSentAgain;
             this.indexInAckList = indexInAckList;
-            this.socket = socket;
+            this.retries = retries;
         }
 
         public void run() {
             // ackList can be null when the last packet has been already acknowledged and the vars for the SR have been reset
-            if (ackList != null && !ackList.get(indexInAckList)) {
-                logger.info("Packet #" + packetToBeSentAgain.getSequenceNumber() + " has been resent due to timeout");
-                UDPConnection.sendPacket(packetToBeSentAgain, socket);
+            if (ackList != null && !ackList.get(indexInAckList) && canRetry(retries)) {
+                Trace.record(Trace.Point.RESENT, packetToBeSentAgain);
+                retransmissions++;
+                PacketRetransmittedEvent.emit(packetToBeSentAgain.getPeerAddress(), packetToBeSentAgain.getPeerPort(), packetToBeSentAgain.getSequenceNumber());
+                sendTimes[indexInAckList] = -1;
+                sendPacket(packetToBeSentAgain);
 
                 // Start a timer
-                Timer timer = new Timer();
-                timer.schedule(new ResendPacket(packetToBeSentAgain, indexInAckList, socket), DELAY_BEFORE_TIMEOUT);
+                startTimer(new ResendPacket(packetToBeSentAgain, indexInAckList, retries + 1));
             }
         }
     }
@@ -260,119 +880,163 @@ public class UDPConnection {
         return number >= lowerBound && number <= upperBound;
     }
 
-    private static boolean isSequenceNumberInPreviousWindow(int sequenceNumber) {
+    private boolean isSequenceNumberInPreviousWindow(int sequenceNumber) {
         // if (h - n < 0)
-        if (rcv_base - WINDOW_SIZE < 0) {
+        if (rcv_base - windowSize < 0) {
 //            [0, h-1] || [(h-n)%MAX, MAX -1]
             return inRange(sequenceNumber, 0, rcv_base - 1)
-                    || inRange(sequenceNumber, (rcv_base - WINDOW_SIZE) % MAX_SEQUENCE_NUMBER, MAX_SEQUENCE_NUMBER - 1);
+                    || inRange(sequenceNumber, rcv_base - windowSize + MAX_SEQUENCE_NUMBER, MAX_SEQUENCE_NUMBER - 1);
         }
 
-        return inRange(sequenceNumber, rcv_base - WINDOW_SIZE, rcv_base - 1);
+        return inRange(sequenceNumber, rcv_base - windowSize, rcv_base - 1);
     }
 
     // --------------SELECTIVE REPEAT------------------------------
 
-    public static ArrayList<Packet> receiveAllPackets(DatagramSocket socket) {
-        // Setup
-        for(int i = 0; i < MAX_SEQUENCE_NUMBER; i++) {
-            packetsInBuffer.add(null);
-        }
-
-        Packet receivedPacket = receivePacket(socket);
+    /**
+     * Receives DATA packets up to the FIN of the sender and returns them in order, or null when the connection timed out first.
+     */
+    public ArrayList<Packet> receiveAllPackets() {
+        Packet receivedPacket = receivePacket();
 
         while (receivedPacket != null && receivedPacket.getType() != PacketType.FIN.value) {
-            if (receivedPacket.getType() == PacketType.DATA.value) {
-                // Packet with sequence number b/w rcv_base and rcv_base+N-1 where N = window size
-                if (rcv_tail > rcv_base) {
-                    // seq in [head, tail]
-                    if (receivedPacket.getSequenceNumber() >= rcv_base && receivedPacket.getSequenceNumber() <= rcv_tail) {
-                        addPacketInBuffer(socket, receivedPacket);
-                    }
-                    // seq in [head -n, head - 1]
-                    else if (isSequenceNumberInPreviousWindow(receivedPacket.getSequenceNumber())) {
-                        UDPConnection.sendACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress(), socket);
-                    }
-                } else if (rcv_tail < rcv_base) {
-                    // seq in [h, MAX-1] || [0, t]
-                    if (receivedPacket.getSequenceNumber() >= rcv_base && receivedPacket.getSequenceNumber() <= MAX_SEQUENCE_NUMBER - 1
-                            || receivedPacket.getSequenceNumber() >= 0 && receivedPacket.getSequenceNumber() <= rcv_tail) {
-                        // Send ACK
-                        addPacketInBuffer(socket, receivedPacket);
-                    }
-                    // seq in [head -n, head - 1]
-                    else if (isSequenceNumberInPreviousWindow(receivedPacket.getSequenceNumber())) {
-                        UDPConnection.sendACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress(), socket);
-                    }
-                } else {
-                    //ERROR: CRASH
-                }
+            if (receivedPacket.getType() == PacketType.DATA.value)
+                receiveData(receivedPacket);
 
-            }
+            receivedPacket = receivePacket();
+        }
+
+        return receivedPacket == null ? null : receiveFIN(receivedPacket);
+    }
 
-            receivedPacket = UDPConnection.receivePacket(socket);
+    /**
+     * Buffers and acknowledges a DATA packet that falls in the receiver window, re-acknowledges one from the previous window.
+     */
+    public void receiveData(Packet receivedPacket) {
+        if (firstDataReceivedTime == 0)
+            firstDataReceivedTime = System.nanoTime();
+        dataPeerPort = receivedPacket.getPeerPort();
+        dataPeerAddress = receivedPacket.getPeerAddress();
+
+        // Packet with sequence number b/w rcv_base and rcv_base+N-1 where N = window size
+        if (rcv_tail >= rcv_base) {
+            // seq in [head, tail]
+            if (receivedPacket.getSequenceNumber() >= rcv_base && receivedPacket.getSequenceNumber() <= rcv_tail) {
+                addPacketInBuffer(receivedPacket);
+            }
+            // seq in [head -n, head - 1]
+            else if (isSequenceNumberInPreviousWindow(receivedPacket.getSequenceNumber())) {
+                sendDataACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress());
+            }
+        } else {
+            // seq in [h, MAX-1] || [0, t]
+            if (receivedPacket.getSequenceNumber() >= rcv_base && receivedPacket.getSequenceNumber() <= MAX_SEQUENCE_NUMBER - 1
+                    || receivedPacket.getSequenceNumber() >= 0 && receivedPacket.getSequenceNumber() <= rcv_tail) {
+                // Send ACK
+                addPacketInBuffer(receivedPacket);
+            }
+            // seq in [head -n, head - 1]
+            else if (isSequenceNumberInPreviousWindow(receivedPacket.getSequenceNumber())) {
+                sendDataACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress());
+            }
         }
+    }
 
-        logger.info("Receiver received all packets from sender since receiver received FIN with sequence number " + receivedPacket.getSequenceNumber());
+    /**
+     * Acknowledges the FIN of the sender and returns every packet received, in order.
+     */
+    public ArrayList<Packet> receiveFIN(Packet receivedPacket) {
+        if (logger.isLoggable(Level.INFO))
+            logger.info("Receiver received all packets from sender since receiver received FIN with sequence number " + receivedPacket.getSequenceNumber());
 
-        UDPConnection.sendACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress(), socket);
+        sendDataACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress());
 
         return finalPacketsInOrder;
     }
 
-    private static void addPacketInBuffer(DatagramSocket socket, Packet receivedPacket) {
-        // Send ACK
-        UDPConnection.sendACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress(), socket);
+    private void addPacketInBuffer(Packet receivedPacket) {
+        // No room left for it until the application consumed what it got, the sender is told the window it probed
+        int distance = Math.floorMod(receivedPacket.getSequenceNumber() - rcv_base, MAX_SEQUENCE_NUMBER);
+        if (distance >= getReceiveWindow() && packetsInBuffer.get(receivedPacket.getSequenceNumber()) == null) {
+            sendDataACK(rcv_base, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress());
+            return;
+        }
 
         // Buffer packet
-        packetsInBuffer.add(receivedPacket.getSequenceNumber(), receivedPacket);
+        packetsInBuffer.set(receivedPacket.getSequenceNumber(), receivedPacket);
 
         //Slide Window
         if (receivedPacket.getSequenceNumber() == rcv_base) {
             for (int i = rcv_base; i < packetsInBuffer.size() && packetsInBuffer.get(i) != null; i++) {
-                finalPacketsInOrder.add(packetsInBuffer.get(i));
+                if (packetConsumer != null)
+                    packetConsumer.accept(packetsInBuffer.get(i));
+                else
+                    finalPacketsInOrder.add(packetsInBuffer.get(i));
+                bytesReceived += packetsInBuffer.get(i).getPayload().length;
                 packetsInBuffer.set(i, null);
                 rcv_base = (rcv_base + 1) % MAX_SEQUENCE_NUMBER;
             }
 
         }
 
-        rcv_tail = (rcv_base + UDPConnection.WINDOW_SIZE - 1) % MAX_SEQUENCE_NUMBER;
+        rcv_tail = (rcv_base + windowSize - 1) % MAX_SEQUENCE_NUMBER;
+
+        // Send ACK, with the window left once the packets in order were handed over
+        sendDataACK(receivedPacket.getSequenceNumber() + 1, receivedPacket.getPeerPort(), receivedPacket.getPeerAddress());
     }
 
-    private static void resetVars() {
+    private void resetVars() {
         windowHead = 0;
-        windowTail = UDPConnection.WINDOW_SIZE - 1;
+        windowTail = windowSize - 1;
+        packetsToSend = null;
         ackList = null;
         sentList = null;
+        nextPacedSendTime = 0;
+        windowStall = null;
+    }
 
-        rcv_base = 0;
-        rcv_tail = UDPConnection.WINDOW_SIZE - 1;
-        finalPacketsInOrder = new ArrayList<>();
-        packetsInBuffer = new ArrayList<>(MAX_SEQUENCE_NUMBER);
+    // The receiver buffer has a slot for every sequence number
+    private static ArrayList<Packet> newReceiveBuffer() {
+        return new ArrayList<>(Collections.nCopies(MAX_SEQUENCE_NUMBER, null));
     }
 
-    private static class ResendFin extends TimerTask {
+    private class ResendFin extends TimerTask {
         private int finalSequenceNumber;
-        private DatagramSocket socket;
         private InetAddress peerAddress;
         private int peerPort;
+        private int retries;
 
-        ResendFin(int finalSequenceNumber, int peerPort, InetAddress peerAddress, DatagramSocket socket) {
+        ResendFin(int finalSequenceNumber, int peerPort, InetAddress peerAddress, int retries) {
             this.finalSequenceNumber = finalSequenceNumber;
-            this.socket = socket;
             this.peerAddress = peerAddress;
             this.peerPort = peerPort;
+            this.retries = retries;
         }
 
         public void run() {
-            if(!ACKtoFINReceived) {
-                sendFIN(finalSequenceNumber, peerPort, peerAddress, socket);
+            if(!ACKtoFINReceived && canRetry(retries)) {
+                retransmissions++;
+                FinTimeoutEvent.emit(peerAddress, peerPort, finalSequenceNumber);
+                sendFIN(finalSequenceNumber, peerPort, peerAddress);
 
                 // Start a timer
-                Timer timer = new Timer();
-                timer.schedule(new ResendFin(finalSequenceNumber, peerPort, peerAddress, socket), UDPConnection.DELAY_BEFORE_TIMEOUT);
+                startTimer(new ResendFin(finalSequenceNumber, peerPort, peerAddress, retries + 1));
             }
         }
     }
+
+    private static class PendingTimer implements Comparable<PendingTimer> {
+        private final long deadline;
+        private final Runnable task;
+
+        PendingTimer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(PendingTimer other) {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
 }
@@ -0,0 +1,281 @@
+package Router;
+
+import Helpers.Capture;
+import Helpers.Packet;
+import Helpers.PacketType;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is a stand-in for the router that plays back a capture instead of forwarding packets.
+ * The engine under test, httpc or httpfs, runs unchanged with the replayer as its router. Every packet that the captured
+ * process received is sent to the engine again at the same time relative to the start, whatever the engine answers,
+ * so that a loss pattern or a slow peer seen once can be reproduced offline as often as needed.
+ * The packets the engine sends are counted by type and compared with the ones of the capture.
+ * A capture that starts with a received packet (a server) is played to the server address right away,
+ * one that starts with a sent packet (a client) is played to the engine from the moment it sends its first packet.
+ * The engine picks the sequence numbers of its SYN, SYN_ACK and FIN at random, so the packets that answer them are
+ * played with the numbers the engine picked this time, matched to the captured ones in the order they were picked.
+ */
+public class Replayer implements Runnable {
+    // The engine is done once it has been quiet for this long after the last packet of the capture
+    private final static long QUIET_PERIOD = TimeUnit.SECONDS.toNanos(2);
+    private final static PacketType[] PACKET_TYPES = PacketType.values();
+
+    private final List<Capture.Record> records;
+    private final int port;
+    private final SocketAddress serverAddress;
+
+    private DatagramSocket socket;
+    private final CountDownLatch firstPacketReceived = new CountDownLatch(1);
+    private volatile SocketAddress engineAddress;
+    private volatile long firstPacketTime;
+    private volatile long lastPacketTime;
+
+    // The sequence numbers the engine picked, by type and peer, in the order it picked them
+    private final Map<String, List<Integer>> capturedSequenceNumbers = new HashMap<>();
+    private final Map<String, List<Integer>> liveSequenceNumbers = new ConcurrentHashMap<>();
+    // For each record played, the sequence number of the engine it answers, or null
+    private final List<PickedSequenceNumber> answeredSequenceNumbers = new ArrayList<>();
+
+    private final AtomicLongArray capturedPackets = new AtomicLongArray(PACKET_TYPES.length);
+    private final AtomicLongArray replayedPackets = new AtomicLongArray(PACKET_TYPES.length);
+    private long playedPackets;
+
+    private static final Logger logger = Logger.getLogger(Replayer.class.getName());
+
+    /**
+     * Plays the given records on the given port. A capture of a server is played to serverAddress.
+     */
+    public Replayer(List<Capture.Record> records, int port, SocketAddress serverAddress) {
+        this.records = records;
+        this.port = port;
+        this.serverAddress = serverAddress;
+
+        for (Capture.Record record : records) {
+            if (record.isSent()) {
+                addSequenceNumber(capturedSequenceNumbers, record.getPacket());
+                answeredSequenceNumbers.add(null);
+            } else
+                answeredSequenceNumbers.add(findAnsweredSequenceNumber(record.getPacket()));
+        }
+    }
+
+    /**
+     * Binds the replayer to its port and starts counting the packets of the engine. The capture is played by run.
+     */
+    public Replayer open() throws IOException {
+        socket = new DatagramSocket(port);
+
+        Thread receiver = new Thread(this::receiveUntilClosed, "Replayer-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        logger.log(Level.INFO, "Replayer listening on port " + socket.getLocalPort() + " ...");
+        return this;
+    }
+
+    @Override
+    public void run() {
+        if (records.isEmpty())
+            return;
+
+        SocketAddress destination = serverAddress;
+        long start = System.nanoTime();
+        if (records.get(0).isSent()) {
+            logger.info("Waiting for the first packet of the client ...");
+            try {
+                firstPacketReceived.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return;
+            }
+            destination = engineAddress;
+            start = firstPacketTime;
+        }
+
+        long captureStart = records.get(0).getTime();
+        for (int i = 0; i < records.size(); i++) {
+            Capture.Record record = records.get(i);
+            if (record.isSent()) {
+                count(capturedPackets, record.getPacket());
+                continue;
+            }
+
+            waitUntil(start + record.getTime() - captureStart);
+            send(answerLiveSequenceNumber(record.getPacket(), answeredSequenceNumbers.get(i)), destination);
+        }
+
+        lastPacketTime = Math.max(lastPacketTime, System.nanoTime());
+        while (System.nanoTime() - lastPacketTime < QUIET_PERIOD)
+            LockSupport.parkNanos(QUIET_PERIOD);
+
+        long elapsed = System.nanoTime() - start;
+        socket.close();
+        printReport(elapsed);
+    }
+
+    private static void waitUntil(long time) {
+        long remaining;
+        while ((remaining = time - System.nanoTime()) > 0)
+            LockSupport.parkNanos(remaining);
+    }
+
+    // ---- Sequence numbers ----
+
+    // The SYN_ACK of the peer acknowledges the SYN, its ACKs with no payload the SYN_ACK and the others a DATA packet or the FIN
+    private PickedSequenceNumber findAnsweredSequenceNumber(Packet packet) {
+        if (packet.getType() == PacketType.SYN_ACK.value && packet.getPayload().length >= Integer.BYTES)
+            return findPickedSequenceNumber(PacketType.SYN, packet, ByteBuffer.wrap(packet.getPayload()).getInt() - 1);
+        if (packet.getType() == PacketType.ACK.value && packet.getPayload().length == 0)
+            return findPickedSequenceNumber(PacketType.SYN_ACK, packet, packet.getSequenceNumber() - 1);
+        if (packet.getType() == PacketType.ACK.value)
+            return findPickedSequenceNumber(PacketType.FIN, packet, packet.getSequenceNumber() - 1);
+        return null;
+    }
+
+    // Only the numbers the engine picked before the packet was received can be the ones it answers
+    private PickedSequenceNumber findPickedSequenceNumber(PacketType type, Packet packet, int sequenceNumber) {
+        String key = key(type, packet);
+        int index = capturedSequenceNumbers.getOrDefault(key, Collections.emptyList()).lastIndexOf(sequenceNumber);
+        return index < 0 ? null : new PickedSequenceNumber(key, index);
+    }
+
+    private static void addSequenceNumber(Map<String, List<Integer>> sequenceNumbers, Packet packet) {
+        if (packet.getType() != PacketType.SYN.value && packet.getType() != PacketType.SYN_ACK.value && packet.getType() != PacketType.FIN.value)
+            return;
+
+        // A packet sent again keeps its number
+        List<Integer> numbers = sequenceNumbers.computeIfAbsent(key(PACKET_TYPES[packet.getType()], packet), key -> Collections.synchronizedList(new ArrayList<>()));
+        synchronized (numbers) {
+            if (numbers.isEmpty() || numbers.get(numbers.size() - 1) != packet.getSequenceNumber())
+                numbers.add(packet.getSequenceNumber());
+        }
+    }
+
+    private static String key(PacketType type, Packet packet) {
+        return type + " " + packet.getPeerAddress().getHostAddress() + ":" + packet.getPeerPort();
+    }
+
+    // The packet with the number the engine picked this time, or as captured if the engine did not pick it in time
+    private Packet answerLiveSequenceNumber(Packet packet, PickedSequenceNumber answered) {
+        if (answered == null)
+            return packet;
+
+        Integer liveSequenceNumber = waitForLiveSequenceNumber(answered);
+        if (liveSequenceNumber == null) {
+            logger.info("The engine did not pick the sequence number answered by " + packet);
+            return packet;
+        }
+
+        if (packet.getType() == PacketType.SYN_ACK.value) {
+            byte[] payload = packet.getPayload().clone();
+            ByteBuffer.wrap(payload).putInt(liveSequenceNumber + 1);
+            return packet.toBuilder().setPayload(payload).create();
+        }
+        return packet.toBuilder().setSequenceNumber(liveSequenceNumber + 1).create();
+    }
+
+    private Integer waitForLiveSequenceNumber(PickedSequenceNumber picked) {
+        long deadline = System.nanoTime() + QUIET_PERIOD;
+        while (true) {
+            List<Integer> numbers = liveSequenceNumbers.getOrDefault(picked.key, Collections.emptyList());
+            synchronized (numbers) {
+                if (numbers.size() > picked.index)
+                    return numbers.get(picked.index);
+            }
+            if (System.nanoTime() - deadline > 0)
+                return null;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void send(Packet packet, SocketAddress destination) {
+        try {
+            byte[] bytes = packet.toBytes();
+            socket.send(new DatagramPacket(bytes, bytes.length, destination));
+            playedPackets++;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Replayer could not send a packet", e);
+        }
+    }
+
+    private void receiveUntilClosed() {
+        byte[] buffer = new byte[Packet.MAX_LEN];
+        while (!socket.isClosed()) {
+            DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(datagramPacket);
+                Packet packet = Packet.fromBytes(Arrays.copyOf(datagramPacket.getData(), datagramPacket.getLength()));
+                lastPacketTime = System.nanoTime();
+                count(replayedPackets, packet);
+                addSequenceNumber(liveSequenceNumbers, packet);
+                if (logger.isLoggable(Level.INFO))
+                    logger.info("Engine sent " + packet);
+
+                if (engineAddress == null) {
+                    engineAddress = datagramPacket.getSocketAddress();
+                    firstPacketTime = lastPacketTime;
+                    firstPacketReceived.countDown();
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed())
+                    logger.log(Level.WARNING, "Replayer could not read a packet", e);
+            }
+        }
+    }
+
+    private static void count(AtomicLongArray counts, Packet packet) {
+        if (packet.getType() >= 0 && packet.getType() < PACKET_TYPES.length)
+            counts.incrementAndGet(packet.getType());
+    }
+
+    // The packets sent by the engine during the replay next to the ones sent by the captured process
+    private void printReport(long elapsed) {
+        System.out.println("Played:    " + playedPackets + " packets");
+        System.out.println(String.format(Locale.ROOT, "Duration:  %.2f s", elapsed / 1e9));
+        System.out.println(String.format(Locale.ROOT, "%-10s %10s %10s", "Sent", "Captured", "Replayed"));
+        for (PacketType type : PACKET_TYPES)
+            System.out.println(String.format(Locale.ROOT, "%-10s %10d %10d", type, capturedPackets.get(type.value), replayedPackets.get(type.value)));
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public long getReplayedPackets(PacketType type) {
+        return replayedPackets.get(type.value);
+    }
+
+    public long getCapturedPackets(PacketType type) {
+        return capturedPackets.get(type.value);
+    }
+
+    private static class PickedSequenceNumber {
+        private final String key;
+        private final int index;
+
+        PickedSequenceNumber(String key, int index) {
+            this.key = key;
+            this.index = index;
+        }
+    }
+}
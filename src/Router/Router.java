@@ -0,0 +1,261 @@
+package Router;
+
+import Helpers.Packet;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is a stand-in for the router of the course. It can run embedded in a test or benchmark, or from RouterCli.
+ * It forwards each packet to the peer written in its header and rewrites the header with the sender, like the real router,
+ * and it can drop, corrupt, delay, jitter, duplicate and reorder packets. Every decision comes from a seeded random generator,
+ * so the same seed and the same traffic give the same run.
+ */
+public class Router implements Runnable {
+    private final int port;
+    private final double dropRate;
+    private final double corruptRate;
+    private final long delay;
+    private final long jitter;
+    private final double duplicateRate;
+    private final double reorderRate;
+    private final long reorderDelay;
+    private final Random random;
+
+    private DatagramSocket socket;
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong forwardedPackets = new AtomicLong();
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final AtomicLong corruptedPackets = new AtomicLong();
+    private final AtomicLong duplicatedPackets = new AtomicLong();
+    private final AtomicLong reorderedPackets = new AtomicLong();
+
+    private static final Logger logger = Logger.getLogger(Router.class.getName());
+
+    private Router(Builder builder) {
+        this.port = builder.port;
+        this.dropRate = builder.dropRate;
+        this.corruptRate = builder.corruptRate;
+        this.delay = builder.delay;
+        this.jitter = builder.jitter;
+        this.duplicateRate = builder.duplicateRate;
+        this.reorderRate = builder.reorderRate;
+        this.reorderDelay = builder.reorderDelay;
+        this.random = new Random(builder.seed);
+    }
+
+    /**
+     * Binds the router to its port. Packets are forwarded by run.
+     */
+    public Router open() throws IOException {
+        socket = new DatagramSocket(port);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Router-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        logger.log(Level.INFO, "Router listening on port " + socket.getLocalPort() + " ...");
+        return this;
+    }
+
+    /**
+     * Binds the router to its port and forwards packets on a background thread until close is called.
+     */
+    public Router start() throws IOException {
+        open();
+
+        Thread thread = new Thread(this, "Router");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    public void close() {
+        socket.close();
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void run() {
+        byte[] buffer = new byte[Packet.MAX_LEN];
+        while (!socket.isClosed()) {
+            DatagramPacket datagramPacket = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(datagramPacket);
+                route(datagramPacket);
+            } catch (IOException e) {
+                if (!socket.isClosed())
+                    logger.log(Level.WARNING, "Router could not forward a packet", e);
+            }
+        }
+    }
+
+    // The random decisions are all taken on the receiving thread, in arrival order, so they only depend on the seed
+    private void route(DatagramPacket datagramPacket) throws IOException {
+        Packet packet = Packet.fromBytes(Arrays.copyOf(datagramPacket.getData(), datagramPacket.getLength()));
+        InetSocketAddress destination = new InetSocketAddress(packet.getPeerAddress(), packet.getPeerPort());
+
+        // The receiver sees the sender as its peer, the rest of the packet and its checksum are forwarded as they are
+        byte[] forwardedBytes = Arrays.copyOf(datagramPacket.getData(), datagramPacket.getLength());
+        Packet.writePeer(forwardedBytes, (InetSocketAddress) datagramPacket.getSocketAddress());
+        DatagramPacket forwardedPacket = new DatagramPacket(forwardedBytes, forwardedBytes.length, destination);
+
+        if (random.nextDouble() < dropRate) {
+            droppedPackets.incrementAndGet();
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Dropped " + packet);
+            return;
+        }
+
+        if (random.nextDouble() < corruptRate) {
+            corruptedPackets.incrementAndGet();
+            corrupt(forwardedBytes);
+        }
+
+        int copies = random.nextDouble() < duplicateRate ? 2 : 1;
+        if (copies == 2)
+            duplicatedPackets.incrementAndGet();
+
+        for (int i = 0; i < copies; i++) {
+            long packetDelay = delay + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+            if (random.nextDouble() < reorderRate) {
+                // Held back long enough for the packets sent after it to overtake it
+                reorderedPackets.incrementAndGet();
+                packetDelay += reorderDelay;
+            }
+
+            forward(forwardedPacket, packetDelay);
+        }
+    }
+
+    // Flips one bit, anywhere but in the peer address and port that tell where the packet goes
+    private void corrupt(byte[] bytes) {
+        int index = random.nextInt(bytes.length - Packet.PEER_LEN);
+        if (index >= Packet.PEER_OFFSET)
+            index += Packet.PEER_LEN;
+
+        bytes[index] ^= 1 << random.nextInt(Byte.SIZE);
+    }
+
+    private void forward(DatagramPacket forwardedPacket, long packetDelay) {
+        if (packetDelay == 0) {
+            send(forwardedPacket);
+            return;
+        }
+
+        scheduler.schedule(() -> send(forwardedPacket), packetDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(DatagramPacket forwardedPacket) {
+        try {
+            socket.send(forwardedPacket);
+            forwardedPackets.incrementAndGet();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Router could not forward a packet", e);
+        }
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public long getForwardedPackets() {
+        return forwardedPackets.get();
+    }
+
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    public long getCorruptedPackets() {
+        return corruptedPackets.get();
+    }
+
+    public long getDuplicatedPackets() {
+        return duplicatedPackets.get();
+    }
+
+    public long getReorderedPackets() {
+        return reorderedPackets.get();
+    }
+
+    public static class Builder {
+        private int port = 3000;
+        private double dropRate = 0;
+        private double corruptRate = 0;
+        private long delay = 0;
+        private long jitter = 0;
+        private double duplicateRate = 0;
+        private double reorderRate = 0;
+        private long reorderDelay = 5;
+        private long seed = 0;
+
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        // Probability in [0, 1] that a packet is lost
+        public Builder setDropRate(double dropRate) {
+            this.dropRate = dropRate;
+            return this;
+        }
+
+        // Probability in [0, 1] that a bit of a packet is flipped
+        public Builder setCorruptRate(double corruptRate) {
+            this.corruptRate = corruptRate;
+            return this;
+        }
+
+        // Delay in milliseconds added to every packet
+        public Builder setDelay(long delay) {
+            this.delay = delay;
+            return this;
+        }
+
+        // Random delay in milliseconds, between 0 and jitter, added on top of the delay
+        public Builder setJitter(long jitter) {
+            this.jitter = jitter;
+            return this;
+        }
+
+        // Probability in [0, 1] that a packet is delivered twice
+        public Builder setDuplicateRate(double duplicateRate) {
+            this.duplicateRate = duplicateRate;
+            return this;
+        }
+
+        // Probability in [0, 1] that a packet is held back by the reorder delay
+        public Builder setReorderRate(double reorderRate) {
+            this.reorderRate = reorderRate;
+            return this;
+        }
+
+        // Extra delay in milliseconds of the packets that are reordered
+        public Builder setReorderDelay(long reorderDelay) {
+            this.reorderDelay = reorderDelay;
+            return this;
+        }
+
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Router create() {
+            return new Router(this);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package Router;
+
+import Helpers.Capture;
+import Helpers.HelpMessage;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Unmatched;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class acts as the command line interface of the simulated router. It parses the router settings and starts a Router.
+ */
+@Command(name = "Router.RouterCli")
+public class RouterCli implements Callable<Integer> {
+
+    @Option(names = "-v") private boolean isVerbose;
+    @Option(names = "--port") private int port = 3000;
+    @Option(names = "--drop-rate") private double dropRate = 0;
+    @Option(names = "--corrupt-rate") private double corruptRate = 0;
+    @Option(names = "--delay") private long delay = 0;
+    @Option(names = "--jitter") private long jitter = 0;
+    @Option(names = "--duplicate-rate") private double duplicateRate = 0;
+    @Option(names = "--reorder-rate") private double reorderRate = 0;
+    @Option(names = "--reorder-delay") private long reorderDelay = 5;
+    @Option(names = "--seed") private long seed = 0;
+    @Option(names = "--replay") private Path replayFile;
+    @Option(names = "--server-host") private String serverHost = "localhost";
+    @Option(names = "--server-port") private int serverPort = 8080;
+    @Option(names = "--dump") private boolean isDumpRequested;
+    @Option(names = "help") private boolean isHelpRequested;
+    @Unmatched private String[] unmatchedValues;
+
+    private ArrayList<Capture.Record> records;
+
+    public static void main(String[] args) throws IOException {
+        RouterCli routerCli = new RouterCli();
+        int exit = new CommandLine(routerCli).execute(args);
+
+        if (exit != 0)
+            System.exit(exit);
+
+        if (routerCli.records != null) {
+            replay(routerCli);
+            return;
+        }
+
+        Logger.getLogger(Router.class.getName()).setLevel(routerCli.isVerbose ? Level.INFO : Level.WARNING);
+        new Router.Builder()
+                .setPort(routerCli.port)
+                .setDropRate(routerCli.dropRate)
+                .setCorruptRate(routerCli.corruptRate)
+                .setDelay(routerCli.delay)
+                .setJitter(routerCli.jitter)
+                .setDuplicateRate(routerCli.duplicateRate)
+                .setReorderRate(routerCli.reorderRate)
+                .setReorderDelay(routerCli.reorderDelay)
+                .setSeed(routerCli.seed)
+                .create()
+                .open()
+                .run();
+    }
+
+    private static void replay(RouterCli routerCli) throws IOException {
+        if (routerCli.isDumpRequested) {
+            for (Capture.Record record : routerCli.records)
+                System.out.println(record);
+            return;
+        }
+
+        Logger.getLogger(Replayer.class.getName()).setLevel(routerCli.isVerbose ? Level.INFO : Level.WARNING);
+        new Replayer(routerCli.records, routerCli.port, new InetSocketAddress(routerCli.serverHost, routerCli.serverPort))
+                .open()
+                .run();
+    }
+
+    @Override
+    public Integer call() {
+        if(unmatchedValues != null) {
+            System.err.println(HelpMessage.INCORRECT_PARAM_ROUTER.getMessage());
+            return 1;
+        }
+
+        if(isHelpRequested) {
+            System.out.print(HelpMessage.ROUTER.getMessage());
+            return 2;
+        }
+
+        if(port < 1024 || port > 65535 || serverPort < 1 || serverPort > 65535) {
+            System.err.println(HelpMessage.INVALID_PORT_NUMBER.getMessage());
+            return 4;
+        }
+
+        if(!isRate(dropRate) || !isRate(corruptRate) || !isRate(duplicateRate) || !isRate(reorderRate)) {
+            System.err.println(HelpMessage.INVALID_RATE.getMessage());
+            return 5;
+        }
+
+        if(delay < 0 || jitter < 0 || reorderDelay < 0) {
+            System.err.println(HelpMessage.INVALID_DELAY.getMessage());
+            return 6;
+        }
+
+        if(replayFile != null) {
+            try {
+                records = Capture.read(replayFile);
+            } catch (IOException e) {
+                System.err.println(HelpMessage.INVALID_CAPTURE_FILE.getMessage());
+                return 7;
+            }
+        }
+
+        return 0;
+    }
+
+    private static boolean isRate(double rate) {
+        return rate >= 0 && rate <= 1;
+    }
+}
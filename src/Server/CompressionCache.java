@@ -0,0 +1,70 @@
+package Server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * This class keeps the compressed bodies of the files served most recently, so that a file is compressed once
+ * per version and encoding instead of once per request.
+ * A body is only returned for the version of the file it was compressed from, the last modification time and length
+ * of the file, so a file written by a POST or by hand is compressed again on its next request.
+ * The cache holds at most its capacity in bytes, the least recently used bodies are evicted first.
+ */
+class CompressionCache {
+    private final long capacity;
+    private long size = 0;
+    // In access order, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static class Entry {
+        private final long lastModified;
+        private final long length;
+        private final byte[] body;
+
+        private Entry(long lastModified, long length, byte[] body) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.body = body;
+        }
+    }
+
+    CompressionCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the body of the given version of the file compressed with the given encoding, null when it is not cached.
+     */
+    synchronized byte[] get(String path, String contentEncoding, long lastModified, long length) {
+        Entry entry = entries.get(getKey(path, contentEncoding));
+        if (entry == null || entry.lastModified != lastModified || entry.length != length)
+            return null;
+
+        return entry.body;
+    }
+
+    synchronized void put(String path, String contentEncoding, long lastModified, long length, byte[] body) {
+        // A body larger than the whole cache would evict everything else
+        if (body.length > capacity)
+            return;
+
+        Entry previous = entries.put(getKey(path, contentEncoding), new Entry(lastModified, length, body));
+        if (previous != null)
+            size -= previous.body.length;
+        size += body.length;
+
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (size > capacity) {
+            size -= leastRecentlyUsed.next().body.length;
+            leastRecentlyUsed.remove();
+        }
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    private static String getKey(String path, String contentEncoding) {
+        return contentEncoding + ":" + path;
+    }
+}
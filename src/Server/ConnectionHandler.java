@@ -0,0 +1,169 @@
+package Server;
+
+import Helpers.Events.ConnectionClosedEvent;
+import Helpers.Events.HandshakeEvent;
+import Helpers.Latency;
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.UDPConnection;
+import Server.Responses.Response;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class serves one client connection: it does the 3-way handshake, reads the request and sends the response.
+ * It blocks on the packets its socket shard demultiplexes to it, so each connection runs on its own thread.
+ * The connection is closed as soon as it times out, and its thread ends.
+ */
+class ConnectionHandler implements Runnable {
+    private HttpServerLibrary server;
+    private SocketShard shard;
+    private UDPConnection connection;
+    private SocketAddress peer;
+    private ArrayList<Packet> finalPacketsInOrder;
+
+    private int peerPort;
+    private InetAddress peerAddress;
+
+    private static final Logger logger = Logger.getLogger(HttpServerLibrary.class.getName());
+
+    private volatile boolean ACKReceivedForHandshake = false;
+
+    ConnectionHandler(HttpServerLibrary server, SocketShard shard, UDPConnection connection, SocketAddress peer) {
+        this.server = server;
+        this.shard = shard;
+        this.connection = connection;
+        this.peer = peer;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (threeWayHandshake())
+                sendResponse();
+        } finally {
+            if (logger.isLoggable(Level.INFO))
+                logger.log(Level.INFO, "Server closing connection with " + peer + "...");
+            connection.close();
+            shard.removeConnection(peer);
+            server.getMetrics().connectionClosed(connection);
+            ConnectionClosedEvent.emit("server", peer, connection);
+        }
+    }
+
+    // ------------- 3-way handshake -----------------------
+
+    // Returns false when the connection timed out before the handshake completed
+    private boolean threeWayHandshake() {
+        // Receive SYN
+        Packet packetSYN = receiveAndVerifySYN();
+        if (packetSYN == null)
+            return false;
+        long handshakeStartTime = System.nanoTime();
+        HandshakeEvent handshakeEvent = HandshakeEvent.start("server");
+        peerAddress = packetSYN.getPeerAddress();
+        peerPort = packetSYN.getPeerPort();
+
+        // Send SYN_ACK
+        int sequenceNumberToSynchronize = UDPConnection.getRandomSequenceNumber();
+        if (logger.isLoggable(Level.INFO))
+            logger.info(" Respond with a SYN_ACK {SYN:" + sequenceNumberToSynchronize +
+                    ", ACK: " + (packetSYN.getSequenceNumber() + 1) + "}");
+        connection.sendSYN_ACK(packetSYN.getSequenceNumber() + 1,
+                sequenceNumberToSynchronize, packetSYN.getPeerPort(), packetSYN.getPeerAddress());
+
+        // Start a timer
+        connection.startTimer(new ResendSynAck(sequenceNumberToSynchronize, packetSYN, 0));
+
+        // Receive ACK. The client never resends it, so when it is lost the first DATA packet of the request,
+        // which the client only sends after the SYN_ACK, completes the handshake instead
+        Packet packet;
+        do {
+            packet = connection.receivePacket();
+            if (packet == null)
+                return false;
+        } while(packet.getType() != PacketType.ACK.value && packet.getType() != PacketType.DATA.value);
+        ACKReceivedForHandshake = true;
+        Latency.HANDSHAKE.recordSince(handshakeStartTime);
+        handshakeEvent.complete(peerAddress, peerPort);
+
+        if (packet.getType() == PacketType.DATA.value)
+            connection.receiveData(packet);
+        else
+            connection.verifyFinalACK(packet, sequenceNumberToSynchronize);
+        return true;
+    }
+
+    private Packet receiveAndVerifySYN() {
+        Packet packet;
+        do {
+            packet = connection.receivePacket();
+            if (packet == null)
+                return null;
+        } while(packet.getType() != PacketType.SYN.value);
+
+        logger.info("Received a SYN packet");
+        return packet;
+    }
+
+    // ------------- 3-way handshake -----------------------
+
+    private void sendResponse() {
+        logger.log(Level.INFO, "Receiving packets from client...");
+        finalPacketsInOrder = connection.receiveAllPackets();
+        if (finalPacketsInOrder == null)
+            return;
+
+        Response response = server.handleRequest(createRequestFromPackets());
+
+        logger.log(Level.INFO, "Sending response to client...");
+        sendResponse(response);
+    }
+
+    private String createRequestFromPackets() {
+        String finalRequest = "";
+        for(Packet packet: finalPacketsInOrder) {
+            finalRequest += new String(packet.getPayload(), UTF_8);
+        }
+
+        return finalRequest;
+    }
+
+    private void sendResponse(Response response) {
+        logger.log(Level.INFO, "Building packets from response object...");
+        ArrayList<Packet> packets = response.toPackets(peerPort, peerAddress);
+
+        logger.log(Level.INFO, "Sending packets to client using selective repeat...");
+        if (!connection.sendUsingSelectiveRepeat(packets, peerPort, peerAddress))
+            logger.log(Level.INFO, "Client stopped answering before the end of the response");
+    }
+
+    private class ResendSynAck extends TimerTask {
+        private int sequenceNumberToSynchronize;
+        private Packet packetSYN;
+        private int retries;
+
+        ResendSynAck(int sequenceNumberToSynchronize, Packet packetSYN, int retries) {
+            this.sequenceNumberToSynchronize = sequenceNumberToSynchronize;
+            this.packetSYN = packetSYN;
+            this.retries = retries;
+        }
+
+        public void run() {
+            if (!ACKReceivedForHandshake && connection.canRetry(retries)) {
+                connection.sendSYN_ACK(packetSYN.getSequenceNumber() + 1,
+                        sequenceNumberToSynchronize, packetSYN.getPeerPort(), packetSYN.getPeerAddress());
+
+                // Start a timer
+                connection.startTimer(new ResendSynAck(sequenceNumberToSynchronize, packetSYN, retries + 1));
+            }
+        }
+    }
+}
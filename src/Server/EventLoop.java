@@ -0,0 +1,157 @@
+package Server;
+
+import Helpers.DatagramBatch;
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.Trace;
+import Helpers.UDPConnection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is an event loop: a single thread with a Selector that owns a DatagramChannel and drives every connection pinned to it.
+ * A connection is pinned to the loop picked by the hash of its peer, so its state is only ever touched by that loop's thread.
+ */
+class EventLoop implements Runnable, Executor {
+    private HttpServerLibrary server;
+    private EventLoop[] loops;
+    private Selector selector;
+    private DatagramChannel channel;
+    private SelectionKey key;
+    private DatagramBatch batch;
+    private final Map<SocketAddress, EventLoopConnection> connections = new HashMap<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private static final Logger logger = Logger.getLogger(HttpServerLibrary.class.getName());
+
+    EventLoop(HttpServerLibrary server, DatagramChannel channel) throws IOException {
+        this.server = server;
+        this.channel = channel;
+        this.selector = Selector.open();
+        this.batch = new DatagramBatch(channel, server.getRouterAddress() == null);
+
+        channel.configureBlocking(false);
+        key = channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    void setLoops(EventLoop[] loops) {
+        this.loops = loops;
+    }
+
+    /**
+     * Runs the task on this loop's thread. It is the only way other threads (timers, other loops) reach its connections.
+     */
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (channel.isOpen()) {
+            try {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                // Drain every datagram that is ready before going back to the selector
+                for (Packet packet : batch.receiveAll()) {
+                    try {
+                        route(packet);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Event loop could not handle a packet", e);
+                    }
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Event loop could not read its channel", e);
+            }
+            runTasks();
+            flush();
+        }
+    }
+
+    // Everything the pass produced goes out together, the loop also waits for the channel to be writable if it is full
+    private void flush() {
+        if (!key.isValid())
+            return;
+
+        boolean isEverythingSent = batch.flush();
+        key.interestOps(isEverythingSent ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    // A failing task must not stop the loop and the other connections pinned to it
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Event loop task failed", e);
+            }
+        }
+    }
+
+    // Hands the packet to the loop its connection is pinned to
+    private void route(Packet packet) {
+        SocketAddress peer = new InetSocketAddress(packet.getPeerAddress(), packet.getPeerPort());
+        EventLoop owner = loops[Math.floorMod(peer.hashCode(), loops.length)];
+
+        if (owner == this)
+            dispatch(peer, packet);
+        else
+            owner.execute(() -> owner.dispatch(peer, packet));
+    }
+
+    private void dispatch(SocketAddress peer, Packet packet) {
+        EventLoopConnection connection = connections.get(peer);
+
+        if (connection == null) {
+            if (packet.getType() != PacketType.SYN.value) {
+                Trace.record(Trace.Point.DROPPED, packet);
+                return;
+            }
+
+            // A SYN from a new peer opens a connection
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Accepted connection from " + peer);
+            UDPConnection udpConnection = new UDPConnection(batch, this);
+            udpConnection.setRouterAddress(server.getRouterAddress());
+            connection = new EventLoopConnection(this, server, udpConnection, peer);
+            connections.put(peer, connection);
+            server.getMetrics().connectionOpened();
+        }
+
+        try {
+            connection.receivePacket(packet);
+        } catch (RuntimeException e) {
+            // A failing connection must not stop the loop and the other connections it drives
+            logger.log(Level.WARNING, "Connection with " + peer + " failed", e);
+            connection.close();
+        }
+    }
+
+    void removeConnection(SocketAddress peer) {
+        connections.remove(peer);
+    }
+
+    void close() {
+        try {
+            channel.close();
+            selector.wakeup();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
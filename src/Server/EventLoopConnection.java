@@ -0,0 +1,159 @@
+package Server;
+
+import Helpers.Events.ConnectionClosedEvent;
+import Helpers.Events.HandshakeEvent;
+import Helpers.Latency;
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.UDPConnection;
+import Server.Responses.Response;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * This class serves one client connection inside an event loop.
+ * It goes through the same steps as ConnectionHandler but reacts to one packet at a time instead of blocking,
+ * and all its methods, timers included, run on the thread of the loop that owns it.
+ * The connection is closed as soon as it times out.
+ */
+class EventLoopConnection {
+    private enum State { HANDSHAKE, RECEIVING_REQUEST, SENDING_RESPONSE, CLOSING }
+
+    private EventLoop loop;
+    private HttpServerLibrary server;
+    private UDPConnection connection;
+    private SocketAddress peer;
+    private State state = State.HANDSHAKE;
+
+    private int peerPort;
+    private InetAddress peerAddress;
+    private int sequenceNumberToSynchronize;
+    private long handshakeStartTime;
+    private HandshakeEvent handshakeEvent;
+    private int finalSequenceNumber;
+
+    private static final Logger logger = Logger.getLogger(HttpServerLibrary.class.getName());
+
+    EventLoopConnection(EventLoop loop, HttpServerLibrary server, UDPConnection connection, SocketAddress peer) {
+        this.loop = loop;
+        this.server = server;
+        this.connection = connection;
+        this.peer = peer;
+        connection.setTimeoutListener(this::close);
+    }
+
+    void receivePacket(Packet packet) {
+        switch (state) {
+            case HANDSHAKE:
+                if (packet.getType() == PacketType.SYN.value && peerAddress == null)
+                    receiveSYN(packet);
+                else if (packet.getType() == PacketType.ACK.value && peerAddress != null) {
+                    connection.verifyFinalACK(packet, sequenceNumberToSynchronize);
+                    Latency.HANDSHAKE.recordSince(handshakeStartTime);
+                    handshakeEvent.complete(peerAddress, peerPort);
+                    logger.log(Level.INFO, "Receiving packets from client...");
+                    state = State.RECEIVING_REQUEST;
+                } else if (packet.getType() == PacketType.DATA.value && peerAddress != null) {
+                    // The ACK of the handshake was lost, the client only sends DATA after the SYN_ACK
+                    Latency.HANDSHAKE.recordSince(handshakeStartTime);
+                    handshakeEvent.complete(peerAddress, peerPort);
+                    logger.log(Level.INFO, "Receiving packets from client...");
+                    state = State.RECEIVING_REQUEST;
+                    connection.receiveData(packet);
+                }
+                break;
+            case RECEIVING_REQUEST:
+                if (packet.getType() == PacketType.DATA.value)
+                    connection.receiveData(packet);
+                else if (packet.getType() == PacketType.FIN.value)
+                    sendResponse(connection.receiveFIN(packet));
+                break;
+            case SENDING_RESPONSE:
+                if (packet.getType() == PacketType.ACK.value) {
+                    connection.receiveACK(packet);
+                    if (connection.isEverythingAcknowledged()) {
+                        finalSequenceNumber = connection.sendFinalFIN();
+                        state = State.CLOSING;
+                    } else
+                        connection.sendWindow();
+                }
+                break;
+            case CLOSING:
+                // Late ACKs of data packets can still arrive, only the ACK of the FIN closes the connection
+                if (packet.getType() == PacketType.ACK.value && packet.getSequenceNumber() == finalSequenceNumber + 1) {
+                    connection.verifyFinalACK(packet, finalSequenceNumber);
+                    close();
+                }
+                break;
+        }
+    }
+
+    private void receiveSYN(Packet packetSYN) {
+        logger.info("Received a SYN packet");
+        handshakeStartTime = System.nanoTime();
+        handshakeEvent = HandshakeEvent.start("server");
+        peerAddress = packetSYN.getPeerAddress();
+        peerPort = packetSYN.getPeerPort();
+
+        // Send SYN_ACK
+        sequenceNumberToSynchronize = UDPConnection.getRandomSequenceNumber();
+        if (logger.isLoggable(Level.INFO))
+            logger.info(" Respond with a SYN_ACK {SYN:" + sequenceNumberToSynchronize +
+                    ", ACK: " + (packetSYN.getSequenceNumber() + 1) + "}");
+        connection.sendSYN_ACK(packetSYN.getSequenceNumber() + 1,
+                sequenceNumberToSynchronize, peerPort, peerAddress);
+
+        // Start a timer
+        connection.startTimer(new ResendSynAck(packetSYN, 0));
+    }
+
+    private void sendResponse(ArrayList<Packet> finalPacketsInOrder) {
+        String request = "";
+        for (Packet packet : finalPacketsInOrder) {
+            request += new String(packet.getPayload(), UTF_8);
+        }
+
+        Response response = server.handleRequest(request);
+
+        logger.log(Level.INFO, "Sending packets to client using selective repeat...");
+        ArrayList<Packet> packets = response.toPackets(peerPort, peerAddress);
+        state = State.SENDING_RESPONSE;
+        connection.startSelectiveRepeat(packets, peerPort, peerAddress);
+    }
+
+    void close() {
+        if (logger.isLoggable(Level.INFO))
+            logger.log(Level.INFO, "Server closing connection with " + peer + "...");
+        connection.close();
+        loop.removeConnection(peer);
+        server.getMetrics().connectionClosed(connection);
+        ConnectionClosedEvent.emit("server", peer, connection);
+    }
+
+    private class ResendSynAck extends TimerTask {
+        private Packet packetSYN;
+        private int retries;
+
+        ResendSynAck(Packet packetSYN, int retries) {
+            this.packetSYN = packetSYN;
+            this.retries = retries;
+        }
+
+        public void run() {
+            if (state == State.HANDSHAKE && connection.canRetry(retries)) {
+                connection.sendSYN_ACK(packetSYN.getSequenceNumber() + 1,
+                        sequenceNumberToSynchronize, packetSYN.getPeerPort(), packetSYN.getPeerAddress());
+
+                // Start a timer
+                connection.startTimer(new ResendSynAck(packetSYN, retries + 1));
+            }
+        }
+    }
+}
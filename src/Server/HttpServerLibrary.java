@@ -3,38 +3,60 @@ import Helpers.*;
 import Server.Responses.Response;
 import java.io.*;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 /**
- * This class is the server library. It takes care of opening the UDP connection, reading the request and sending the response.
+ * This class is the server library. It takes care of opening the UDP socket, handing each client connection its packets
+ * and performing the requests they send.
  */
 class HttpServerLibrary {
     private int port;
     private Path baseDirectory;
-    private DatagramSocket serverSocket;
-    private ArrayList<Packet> finalPacketsInOrder;
-
-    private int peerPort;
-    private InetAddress peerAddress;
+    private int eventLoops;
+    private int shards;
+    private SocketAddress routerAddress;
+    private ExecutorService connectionExecutor;
+    private final Metrics metrics = new Metrics();
+    private CompressionCache compressionCache;
 
     private final static String EOL = "\r\n";
+    // Precompressed siblings of a file, in order of preference
+    private final static String[] PRECOMPRESSED_ENCODINGS = {Response.BROTLI, Response.GZIP};
+    private final static String[] PRECOMPRESSED_EXTENSIONS = {".br", ".gz"};
+    // A Range header with more ranges is ignored, each range costs a part and a read
+    private final static int MAX_RANGES = 16;
 
     private static final Logger logger = Logger.getLogger(HttpServerLibrary.class.getName());
 
-    private boolean ACKReceivedForHandshake = false;
-
-    HttpServerLibrary(boolean isVerbose, int port, Path baseDirectory) {
+    HttpServerLibrary(boolean isVerbose, int port, Path baseDirectory, int eventLoops, int shards, SocketAddress routerAddress,
+                      long compressionCacheSize) {
         this.port = port;
         this.baseDirectory = baseDirectory;
+        this.eventLoops = eventLoops;
+        this.shards = shards;
+        this.routerAddress = routerAddress;
+        this.compressionCache = compressionCacheSize > 0 ? new CompressionCache(compressionCacheSize) : null;
 
         logger.setLevel(isVerbose ? Level.INFO : Level.WARNING);
 
@@ -42,63 +64,105 @@ class HttpServerLibrary {
     }
 
     private void start() {
+        if (eventLoops > 0) {
+            startEventLoops();
+            return;
+        }
+
+        startShards();
+    }
+
+    // ------------- Socket shards -----------------------
+
+    // Each shard has its own socket, receive thread and connections. The kernel spreads the flows over the sockets.
+    private void startShards() {
+        SocketShard[] socketShards = new SocketShard[shards];
         try {
-            serverSocket = new DatagramSocket(port);
-            logger.log(Level.INFO, "Listening on port " + port + " ...");
-        } catch (IOException e) {
+            for (int i = 0; i < socketShards.length; i++) {
+                DatagramSocket socket = new DatagramSocket(null);
+                // Every shard binds its own socket to the same port
+                if (socketShards.length > 1)
+                    socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                socket.bind(new InetSocketAddress(port));
+                socketShards[i] = new SocketShard(this, socket);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
             e.printStackTrace();
+            return;
         }
 
-        threeWayHandshake();
-        sendResponse();
-        closeUDPConnection();
+        // Connections block while waiting for packets, so each one gets its own thread
+        connectionExecutor = Threads.newThreadPerTaskExecutor();
+        logger.log(Level.INFO, "Listening on port " + port + " with " + socketShards.length + " socket(s) ...");
+        for (int i = 0; i < socketShards.length; i++)
+            new Thread(socketShards[i], "SocketShard-" + i).start();
     }
 
-    // ------------- 3-way handshake -----------------------
+    void startConnection(ConnectionHandler handler) {
+        connectionExecutor.execute(handler);
+    }
 
-    private void threeWayHandshake() {
-        // Receive SYN
-        Packet packetSYN = receiveAndVerifySYN();
-        peerAddress = packetSYN.getPeerAddress();
-        peerPort = packetSYN.getPeerPort();
+    Metrics getMetrics() {
+        return metrics;
+    }
 
-        // Send SYN_ACK
-        int sequenceNumberToSynchronize = UDPConnection.getRandomSequenceNumber();
-        logger.info(" Respond with a SYN_ACK {SYN:" + sequenceNumberToSynchronize +
-                ", ACK: " + (packetSYN.getSequenceNumber() + 1) + "}");
-        UDPConnection.sendSYN_ACK(packetSYN.getSequenceNumber() + 1,
-                sequenceNumberToSynchronize, packetSYN.getPeerPort(), packetSYN.getPeerAddress(), serverSocket);
+    // The router that connections go through, null when clients are reached directly
+    SocketAddress getRouterAddress() {
+        return routerAddress;
+    }
 
-        // Start a timer
-        Timer timer = new Timer();
-        timer.schedule(new ResendSynAck(sequenceNumberToSynchronize, packetSYN), UDPConnection.DELAY_BEFORE_TIMEOUT);
+    // ------------- Socket shards -----------------------
 
-        // Receive ACK
-        UDPConnection.receiveAndVerifyFinalACK(sequenceNumberToSynchronize, serverSocket);
-        ACKReceivedForHandshake = true;
-    }
+    // ------------- Event loops -----------------------
 
-    private Packet receiveAndVerifySYN() {
-        Packet packet;
-        do {
-            packet = UDPConnection.receivePacket(serverSocket);
-        } while(packet.getType() != PacketType.SYN.value);
+    // Instead of a thread per connection, a few threads each run a Selector over their own channel
+    private void startEventLoops() {
+        EventLoop[] loops = new EventLoop[eventLoops];
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+                // Every loop binds its own channel to the same port
+                if (loops.length > 1)
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(new InetSocketAddress(port));
+                loops[i] = new EventLoop(this, channel);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            e.printStackTrace();
+            return;
+        }
 
-        logger.info("Received a SYN packet");
-        return packet;
+        logger.log(Level.INFO, "Listening on port " + port + " with " + loops.length + " event loop(s) ...");
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].setLoops(loops);
+            new Thread(loops[i], "EventLoop-" + i).start();
+        }
     }
 
-    // ------------- 3-way handshake -----------------------
-
-    private void sendResponse() {
-        logger.log(Level.INFO, "Receiving packets from client...");
-        finalPacketsInOrder = UDPConnection.receiveAllPackets(serverSocket);
+    // ------------- Event loops -----------------------
 
+    // This method reads the request sent by a client and performs it
+    Response handleRequest(String request) {
+        long startTime = System.nanoTime();
         logger.log(Level.INFO, "Building response from packets...");
-        Response response = createResponseFrom(createRequestFromPackets());
+        Response response = createResponseFrom(request);
+
+        logger.log(Level.INFO, "Constructing response to send to client...");
+        // Responses built by the server itself, like the metrics, have no file to read or write
+        if (response.getHttpMethod() != null && response.getFile() != null) {
+            switch (response.getHttpMethod()) {
+                case GET:
+                    performGet(response);
+                    break;
+                case POST:
+                    performPost(response);
+                    break;
+            }
+        }
 
-        logger.log(Level.INFO, "Sending response to client...");
-        sendResponse(response);
+        metrics.responseSent(response.getStatus());
+        Latency.SERVER_HANDLER.recordSince(startTime);
+        return response;
     }
 
     // This method reads the requests sent by the client and creates a Response object
@@ -106,6 +170,7 @@ class HttpServerLibrary {
         // Parse request line
         HTTPMethod requestHttpMethod = null;
         File file = null;
+        String requestPath = null;
 
         String[] requestLines = request.split(EOL);
         int lineCounter = 0;
@@ -131,6 +196,7 @@ class HttpServerLibrary {
                             try {
                                 if (statusLineComponents[URL].contains("../"))
                                     return new Response(Status.BAD_REQUEST);
+                                requestPath = statusLineComponents[URL];
                                 Path path = baseDirectory.getFileSystem().getPath(statusLineComponents[URL]);
                                 file = Paths.get(baseDirectory.toString(), path.toString()).toFile();
                             } catch (InvalidPathException exception) {
@@ -162,51 +228,35 @@ class HttpServerLibrary {
         line = requestLines.length >= 2 ? requestLines[++lineCounter] : null;
         while (line != null && !line.isEmpty()) {
             clientHeaders.add(line);
-            line = requestLines.length >= ++lineCounter ? requestLines[lineCounter] : null;
+            line = requestLines.length > ++lineCounter ? requestLines[lineCounter] : null;
         }
 
         // Parse data (for POST)
         StringBuilder data = new StringBuilder();
         if (requestHttpMethod.equals(HTTPMethod.POST)) {
-            line = requestLines.length >= ++lineCounter ? requestLines[lineCounter] : null;
+            line = requestLines.length > ++lineCounter ? requestLines[lineCounter] : null;
             while (line != null && !line.isEmpty()) {
                 data.append(line);
                 data.append("\n");
-                line = requestLines.length >= ++lineCounter ? requestLines[lineCounter] : null;
+                line = requestLines.length > ++lineCounter ? requestLines[lineCounter] : null;
             }
         }
 
+        if (Metrics.METRICS_PATH.equals(requestPath))
+            return createMetricsResponse(requestHttpMethod);
+
         return new Response(requestHttpMethod, Status.OK, clientHeaders, data.toString(), file);
 
     }
 
-    private String createRequestFromPackets() {
-        String finalRequest = "";
-        for(Packet packet: finalPacketsInOrder) {
-            finalRequest += new String(packet.getPayload(), UTF_8);
-        }
+    // The metrics path is reserved: it is never read from or written to the base directory
+    private Response createMetricsResponse(HTTPMethod requestHttpMethod) {
+        if (requestHttpMethod != HTTPMethod.GET)
+            return new Response(Status.FORBIDDEN);
 
-        return finalRequest;
-    }
-
-    private void sendResponse(Response response) {
-        logger.log(Level.INFO, "Constructing response to send to client...");
-        if (response.getHttpMethod() != null) {
-            switch (response.getHttpMethod()) {
-                case GET:
-                    performGet(response);
-                    break;
-                case POST:
-                    performPost(response);
-                    break;
-            }
-        }
-
-        logger.log(Level.INFO, "Building packets from response object...");
-        ArrayList<Packet> packets = UDPConnection.buildPackets(response.getResponse(), PacketType.DATA, peerPort, peerAddress);
-
-        logger.log(Level.INFO, "Sending packets to client using selective repeat...");
-        UDPConnection.sendUsingSelectiveRepeat(packets, peerPort, peerAddress, serverSocket);
+        Response response = new Response(HTTPMethod.GET, Status.OK, new ArrayList<>(), metrics.toPrometheus(), null);
+        response.setContentType(Metrics.CONTENT_TYPE);
+        return response;
     }
 
     // This method constructs a get response
@@ -227,17 +277,229 @@ class HttpServerLibrary {
                     } else
                         response.setData("No files in the directory.");
                 } else { // File
-                    String fileContent = extractContent(response.getFile().getAbsoluteFile());
-                    if (fileContent == null) {
+                    // The version is taken before the content is read, so a cached body is never newer than its version
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                    } catch (IOException exception) {
+                        logger.log(Level.WARNING, "Requested file was not found!", exception);
                         response.setStatus(Status.NOT_FOUND);
+                        return;
+                    }
+                    long lastModified = attributes.lastModifiedTime().toMillis();
+                    long length = attributes.size();
+                    String entityTag = getEntityTag(attributes);
+                    response.setValidators(entityTag, lastModified);
+                    if (isNotModified(response, entityTag, lastModified)) {
+                        response.setStatus(Status.NOT_MODIFIED);
+                        return;
                     }
-                    response.setData(fileContent);
+
+                    response.addServerHeader("Accept-Ranges: bytes");
+                    String range = response.getClientHeader("Range");
+                    if (range != null && isRangeCurrent(response, entityTag, lastModified) && performRangeGet(response, range))
+                        return;
+
+                    // The bytes of the file as they are, the same ones the ranges and the Content-Range length refer to
+                    try {
+                        response.setBody(Files.readAllBytes(file.toPath()));
+                    } catch (IOException exception) {
+                        logger.log(Level.WARNING, "Requested file was not found!", exception);
+                        response.setStatus(Status.NOT_FOUND);
+                        return;
+                    }
+                    encodeBody(response, lastModified, length);
                 }
             } else
                 response.setStatus(Status.FORBIDDEN);
         }
     }
 
+    // The tag of a version of a file: its length, modification time and, where the file system has one, inode.
+    // A file replaced by another of the same length within the same millisecond still gets a new tag.
+    private static String getEntityTag(BasicFileAttributes attributes) {
+        String entityTag = Long.toHexString(attributes.size()) + "-" + Long.toHexString(attributes.lastModifiedTime().toMillis());
+        return attributes.fileKey() != null ? entityTag + "-" + Integer.toHexString(attributes.fileKey().hashCode()) : entityTag;
+    }
+
+    // This method checks the conditions of a get. If-Modified-Since is only used by clients that sent no If-None-Match.
+    static boolean isNotModified(Response response, String entityTag, long lastModified) {
+        String ifNoneMatch = response.getClientHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // The comparison is weak, the tag of a compressed body matches the one of the file
+                if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals("\"" + entityTag + "\""))
+                    return true;
+            }
+            return false;
+        }
+
+        long ifModifiedSince = parseHttpDate(response.getClientHeader("If-Modified-Since"));
+        // HTTP dates are in seconds
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    // A range is only sent when the client has the same version of the file as the one in its If-Range, if any
+    static boolean isRangeCurrent(Response response, String entityTag, long lastModified) {
+        String ifRange = response.getClientHeader("If-Range");
+        if (ifRange == null)
+            return true;
+
+        // The comparison is strong, ranges of a weak tag could come from different bytes
+        if (ifRange.startsWith("\""))
+            return ifRange.equals("\"" + entityTag + "\"");
+
+        long date = parseHttpDate(ifRange);
+        return date >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    // The time of an HTTP date in milliseconds, -1 when there is none or it cannot be read
+    private static long parseHttpDate(String date) {
+        if (date == null)
+            return -1;
+
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException exception) {
+            return -1;
+        }
+    }
+
+    // This method constructs a partial get response with the ranges of the file that were requested.
+    // It returns false when the Range header is ignored, in which case the whole file is sent.
+    private boolean performRangeGet(Response response, String rangeHeader) {
+        File file = response.getFile();
+        long length = file.length();
+        List<long[]> ranges = parseRanges(rangeHeader, length);
+        if (ranges == null)
+            return false;
+
+        if (ranges.isEmpty()) {
+            response.setStatus(Status.RANGE_NOT_SATISFIABLE);
+            response.addServerHeader("Content-Range: bytes */" + length);
+            return true;
+        }
+
+        // Only the requested regions are read, with positional reads that leave the channel position alone
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (ranges.size() == 1) {
+                long[] range = ranges.get(0);
+                response.addServerHeader("Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length);
+                response.setBody(read(channel, range[0], range[1]));
+            } else {
+                String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+                String contentType = response.getContentType();
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                for (long[] range : ranges) {
+                    String partHeaders = "--" + boundary + EOL +
+                            (contentType != null ? "Content-Type: " + contentType + EOL : "") +
+                            "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + EOL + EOL;
+                    body.write(partHeaders.getBytes(StandardCharsets.UTF_8));
+                    body.write(read(channel, range[0], range[1]));
+                    body.write(EOL.getBytes(StandardCharsets.UTF_8));
+                }
+                body.write(("--" + boundary + "--" + EOL).getBytes(StandardCharsets.UTF_8));
+                response.setContentType("multipart/byteranges; boundary=" + boundary);
+                response.setBody(body.toByteArray());
+            }
+        } catch (IOException exception) {
+            logger.log(Level.WARNING, "Requested file could not be read!", exception);
+            response.setStatus(Status.NOT_FOUND);
+            return true;
+        }
+
+        response.setStatus(Status.PARTIAL_CONTENT);
+        return true;
+    }
+
+    // Parses a Range header into {first, last} byte positions of the file, the last one clamped to its length.
+    // Returns null when the header must be ignored and an empty list when none of its ranges is satisfiable.
+    static List<long[]> parseRanges(String rangeHeader, long length) {
+        if (!rangeHeader.startsWith("bytes="))
+            return null;
+
+        String[] specs = rangeHeader.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES)
+            return null;
+
+        List<long[]> ranges = new ArrayList<>();
+        try {
+            for (String spec : specs) {
+                int dash = spec.indexOf('-');
+                if (dash < 0)
+                    return null;
+
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                long[] range;
+                if (first.isEmpty()) { // The last bytes of the file
+                    long suffixLength = Long.parseLong(last);
+                    if (suffixLength < 0)
+                        return null;
+                    range = new long[]{Math.max(0, length - suffixLength), length - 1};
+                } else {
+                    range = new long[]{Long.parseLong(first), last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last)};
+                    if (range[0] < 0 || range[1] < range[0])
+                        return null;
+                    range[1] = Math.min(range[1], length - 1);
+                }
+
+                if (range[0] < length && range[0] <= range[1])
+                    ranges.add(range);
+            }
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+
+        return ranges;
+    }
+
+    private static byte[] read(FileChannel channel, long first, long last) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (last - first + 1));
+        while (buffer.hasRemaining()) {
+            // The file may have been cut since its length was taken
+            if (channel.read(buffer, first + buffer.position()) < 0)
+                break;
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    // This method compresses the body of a file once per version: a fresh precompressed sibling of the file is served
+    // when the client accepts its encoding, then a body of the compression cache. Otherwise the response compresses it on the way.
+    private void encodeBody(Response response, long lastModified, long length) {
+        if (!response.isCompressible())
+            return;
+
+        File file = response.getFile();
+        for (int i = 0; i < PRECOMPRESSED_ENCODINGS.length; i++) {
+            File precompressed = new File(file.getPath() + PRECOMPRESSED_EXTENSIONS[i]);
+            if (!response.acceptsEncoding(PRECOMPRESSED_ENCODINGS[i]) || !precompressed.isFile() || precompressed.lastModified() < lastModified)
+                continue;
+
+            try {
+                response.setEncodedBody(PRECOMPRESSED_ENCODINGS[i], Files.readAllBytes(precompressed.toPath()));
+                metrics.precompressedResponseSent();
+                return;
+            } catch (IOException exception) {
+                logger.log(Level.WARNING, "Precompressed file could not be read!", exception);
+            }
+        }
+
+        String contentEncoding = response.getContentEncoding();
+        if (compressionCache == null || contentEncoding == null)
+            return;
+
+        String path = file.getAbsolutePath();
+        byte[] body = compressionCache.get(path, contentEncoding, lastModified, length);
+        metrics.compressionCacheLookedUp(body != null);
+        if (body == null) {
+            body = response.encodeData(contentEncoding);
+            compressionCache.put(path, contentEncoding, lastModified, length, body);
+        }
+        response.setEncodedBody(contentEncoding, body);
+    }
+
     // This method constructs a post response
     private void performPost(Response response) {
         // Output data to file
@@ -264,46 +526,4 @@ class HttpServerLibrary {
             return null;
     }
 
-    // Helper method to extract data from a file given its path
-    private static String extractContent(File file) {
-        StringBuilder data = new StringBuilder();
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String content = "";
-            while ((content = br.readLine()) != null)
-                data.append(content).append("\n");
-        } catch (IOException exception) {
-            logger.log(Level.WARNING, "Requested file was not found!", exception);
-            return null;
-        }
-        return data.toString().trim();
-    }
-
-    private void closeUDPConnection() {
-        logger.log(Level.INFO, "Server closing connection...");
-        serverSocket.close();
-        System.exit(0);
-    }
-
-    private class ResendSynAck extends TimerTask {
-        private int sequenceNumberToSynchronize;
-        private Packet packetSYN;
-
-        ResendSynAck(int sequenceNumberToSynchronize, Packet packetSYN) {
-            this.sequenceNumberToSynchronize = sequenceNumberToSynchronize;
-            this.packetSYN = packetSYN;
-        }
-
-        public void run() {
-            if (!ACKReceivedForHandshake) {
-                UDPConnection.sendSYN_ACK(packetSYN.getSequenceNumber() + 1,
-                        sequenceNumberToSynchronize, packetSYN.getPeerPort(), packetSYN.getPeerAddress(), serverSocket);
-
-                ACKReceivedForHandshake = false;
-                // Start a timer
-                Timer timer = new Timer();
-                timer.schedule(new ResendSynAck(sequenceNumberToSynchronize, packetSYN), UDPConnection.DELAY_BEFORE_TIMEOUT);
-
-            }
-        }
-    }
 }
@@ -1,11 +1,18 @@
 package Server;
 
+import Helpers.Capture;
 import Helpers.HelpMessage;
+import Helpers.Latency;
+import Helpers.Packet;
+import Helpers.Trace;
+import Helpers.UDPConnection;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Unmatched;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.Callable;
@@ -19,6 +26,17 @@ public class Httpfs implements Callable<Integer> {
     @Option(names = "-v") private boolean isVerbose;
     @Option(names = "-p") private int port = 8080;
     @Option(names = "-d") private String pathToDirectory = "";
+    @Option(names = "-e") private int eventLoops = 0;
+    @Option(names = "-s") private int shards = 1;
+    @Option(names = "--pacing") private boolean isPacingEnabled;
+    @Option(names = "--checksum") private boolean isChecksumEnabled;
+    @Option(names = "--router-host") private String routerHost = "localhost";
+    @Option(names = "--router-port") private int routerPort = 3000;
+    @Option(names = "--direct") private boolean isDirect;
+    @Option(names = "--latencies") private String latencyFormat;
+    @Option(names = "--trace") private Path traceFile;
+    @Option(names = "--capture") private Path captureFile;
+    @Option(names = "--compression-cache") private int compressionCacheSize = 16;
     @Option(names = "help") private boolean isHelpRequested;
     @Unmatched private String[] unmatchedValues;
 
@@ -26,9 +44,19 @@ public class Httpfs implements Callable<Integer> {
         Httpfs serverCli = new Httpfs();
         int exit = new CommandLine(serverCli).execute(args);
 
-        if (exit == 0)
-            new HttpServerLibrary(serverCli.isVerbose, serverCli.port, Paths.get(serverCli.pathToDirectory).toAbsolutePath());
-        else
+        if (exit == 0) {
+            UDPConnection.setPacingEnabled(serverCli.isPacingEnabled);
+            Packet.setChecksumEnabled(serverCli.isChecksumEnabled);
+            if (serverCli.latencyFormat != null)
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(Latency.export(serverCli.latencyFormat))));
+            if (serverCli.traceFile != null)
+                Runtime.getRuntime().addShutdownHook(new Thread(Trace::stop));
+            if (serverCli.captureFile != null)
+                Runtime.getRuntime().addShutdownHook(new Thread(Capture::stop));
+            new HttpServerLibrary(serverCli.isVerbose, serverCli.port, Paths.get(serverCli.pathToDirectory).toAbsolutePath(), serverCli.eventLoops, serverCli.shards,
+                    serverCli.isDirect ? null : new InetSocketAddress(serverCli.routerHost, serverCli.routerPort),
+                    serverCli.compressionCacheSize * 1024L * 1024L);
+        } else
             System.exit(exit);
     }
 
@@ -54,11 +82,49 @@ public class Httpfs implements Callable<Integer> {
             }
         }
 
-        if(port < 1024 || port > 65535) {
+        if(port < 1024 || port > 65535 || routerPort < 1 || routerPort > 65535) {
             System.err.println(HelpMessage.INVALID_PORT_NUMBER.getMessage());
             return 4;
         }
 
+        if(eventLoops < 0) {
+            System.err.println(HelpMessage.INVALID_EVENT_LOOPS.getMessage());
+            return 5;
+        }
+
+        if(shards < 1) {
+            System.err.println(HelpMessage.INVALID_SHARDS.getMessage());
+            return 6;
+        }
+
+        if(latencyFormat != null && Latency.export(latencyFormat) == null) {
+            System.err.println(HelpMessage.INVALID_LATENCY_FORMAT.getMessage());
+            return 7;
+        }
+
+        if(traceFile != null) {
+            try {
+                Trace.start(traceFile);
+            } catch (IOException e) {
+                System.err.println(HelpMessage.INVALID_TRACE_FILE.getMessage());
+                return 8;
+            }
+        }
+
+        if(captureFile != null) {
+            try {
+                Capture.start(captureFile);
+            } catch (IOException e) {
+                System.err.println(HelpMessage.INVALID_CAPTURE_FILE.getMessage());
+                return 9;
+            }
+        }
+
+        if(compressionCacheSize < 0) {
+            System.err.println(HelpMessage.INVALID_COMPRESSION_CACHE.getMessage());
+            return 10;
+        }
+
         return 0;
     }
 }
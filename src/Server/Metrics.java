@@ -0,0 +1,115 @@
+package Server;
+
+import Helpers.Status;
+import Helpers.UDPConnection;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class contains the counters of a server, served in the Prometheus text format on METRICS_PATH.
+ * The counters are LongAdders, striped over the threads that update them, so the connections never contend on them.
+ * A connection adds its transport counters once, when it closes, instead of on every packet.
+ */
+class Metrics {
+    final static String METRICS_PATH = "/_metrics";
+    final static String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private final static Status[] STATUSES = Status.values();
+
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder[] responses = new LongAdder[STATUSES.length];
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder packetsSent = new LongAdder();
+    private final LongAdder retransmissions = new LongAdder();
+    private final DoubleAdder windowUtilization = new DoubleAdder();
+    private final LongAdder windowUtilizationSamples = new LongAdder();
+    private final LongAdder compressionCacheHits = new LongAdder();
+    private final LongAdder compressionCacheMisses = new LongAdder();
+    private final LongAdder precompressedResponses = new LongAdder();
+
+    Metrics() {
+        for (int i = 0; i < responses.length; i++)
+            responses[i] = new LongAdder();
+    }
+
+    void connectionOpened() {
+        activeConnections.increment();
+        connections.increment();
+    }
+
+    void connectionClosed(UDPConnection connection) {
+        activeConnections.decrement();
+        bytesSent.add(connection.getBytesSent());
+        bytesReceived.add(connection.getBytesReceived());
+        packetsSent.add(connection.getPacketsSent());
+        retransmissions.add(connection.getRetransmissions());
+
+        // Connections that never sent their response would count as an empty window
+        if (connection.getPacketsSent() > 0) {
+            windowUtilization.add(connection.getWindowUtilization());
+            windowUtilizationSamples.increment();
+        }
+    }
+
+    void responseSent(Status status) {
+        responses[status.ordinal()].increment();
+    }
+
+    void compressionCacheLookedUp(boolean isHit) {
+        (isHit ? compressionCacheHits : compressionCacheMisses).increment();
+    }
+
+    void precompressedResponseSent() {
+        precompressedResponses.increment();
+    }
+
+    /**
+     * Returns every metric in the Prometheus text exposition format.
+     */
+    String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        appendMetric(text, "httpfs_active_connections", "gauge", "Connections open at the moment.", activeConnections.sum());
+        appendMetric(text, "httpfs_connections_total", "counter", "Connections accepted.", connections.sum());
+
+        appendHeader(text, "httpfs_responses_total", "counter", "Responses sent by status code.");
+        for (Status status : STATUSES)
+            text.append("httpfs_responses_total{code=\"").append(status.getCode()).append("\"} ")
+                    .append(responses[status.ordinal()].sum()).append('\n');
+
+        appendMetric(text, "httpfs_sent_bytes_total", "counter", "Payload bytes of the DATA packets sent, without retransmissions.", bytesSent.sum());
+        appendMetric(text, "httpfs_received_bytes_total", "counter", "Payload bytes of the DATA packets received in order.", bytesReceived.sum());
+        appendMetric(text, "httpfs_sent_packets_total", "counter", "DATA packets sent, without retransmissions.", packetsSent.sum());
+        appendMetric(text, "httpfs_retransmissions_total", "counter", "DATA and FIN packets sent again after a timeout.", retransmissions.sum());
+
+        long packets = packetsSent.sum();
+        appendMetric(text, "httpfs_retransmit_ratio", "gauge", "Retransmissions per DATA packet sent, over the closed connections.",
+                packets == 0 ? 0 : (double) retransmissions.sum() / packets);
+
+        long samples = windowUtilizationSamples.sum();
+        appendMetric(text, "httpfs_window_utilization", "gauge", "Average share of the window in flight, over the closed connections.",
+                samples == 0 ? 0 : windowUtilization.sum() / samples);
+
+        long hits = compressionCacheHits.sum();
+        long lookups = hits + compressionCacheMisses.sum();
+        appendMetric(text, "httpfs_compression_cache_hits_total", "counter", "Compressed bodies found in the compression cache.", hits);
+        appendMetric(text, "httpfs_compression_cache_misses_total", "counter", "Bodies compressed because they were not in the compression cache.", lookups - hits);
+        appendMetric(text, "httpfs_compression_cache_hit_ratio", "gauge", "Share of the compression cache lookups that were hits.",
+                lookups == 0 ? 0 : (double) hits / lookups);
+        appendMetric(text, "httpfs_precompressed_responses_total", "counter", "Responses served from a precompressed .br or .gz file.", precompressedResponses.sum());
+
+        return text.toString();
+    }
+
+    private static void appendMetric(StringBuilder text, String name, String type, String help, Number value) {
+        appendHeader(text, name, type, help);
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendHeader(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
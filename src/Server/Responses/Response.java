@@ -1,13 +1,30 @@
 package Server.Responses;
 
 import Helpers.HTTPMethod;
+import Helpers.Packet;
+import Helpers.PacketOutputStream;
+import Helpers.PacketType;
 import Helpers.Status;
+import Helpers.UDPConnection;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * This class creates a Response object.
@@ -18,10 +35,25 @@ public class Response {
     private String data;
     private File file;
     private HTTPMethod httpMethod;
+    private String contentType;
+    // The bytes of a file, sent instead of the data
+    private byte[] body;
+    private String encodedBodyEncoding;
+    private byte[] encodedBody;
+    private final List<String> serverHeaders = new ArrayList<>();
+    private String entityTag;
+    private long lastModified;
 
     private final String HTTP_VERSION = "HTTP/1.0";
     private final String EOL = "\r\n";
 
+    public final static String GZIP = "gzip";
+    public final static String DEFLATE = "deflate";
+    // Never produced by the server, only served from precompressed files
+    public final static String BROTLI = "br";
+    // A body that fits in one packet takes as many packets compressed
+    private final static int MIN_COMPRESSED_LENGTH = UDPConnection.MAX_PAYLOAD_SIZE;
+
     public Response(Status status) {
         this.status = status;
     }
@@ -37,7 +69,7 @@ public class Response {
     public String getResponse() {
         StringBuilder response = new StringBuilder();
         response.append(getStatusLine());
-        response.append(getServerHeaders());
+        response.append(getServerHeaders(null));
         if (status.equals(Status.OK) && httpMethod.equals(HTTPMethod.GET)) {
             response.append(EOL);
             response.append(getData());
@@ -47,6 +79,105 @@ public class Response {
         return response.toString();
     }
 
+    /**
+     * Writes the response to the given stream. A text body is compressed on the way when the client accepts gzip or deflate
+     * and the body would take more than one packet. Its length is only known once it is compressed, so it has
+     * no Content-Length and ends with the message, as HTTP/1.0 allows. A body set beforehand is sent as it is.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (encodedBody != null) {
+            out.write((getStatusLine() + getServerHeaders(encodedBodyEncoding) + EOL).getBytes(UTF_8));
+            out.write(encodedBody);
+            return;
+        }
+
+        String contentEncoding = getContentEncoding();
+        if (contentEncoding == null && body != null) {
+            out.write((getStatusLine() + getServerHeaders(null) + EOL).getBytes(UTF_8));
+            out.write(body);
+            return;
+        }
+        if (contentEncoding == null) {
+            out.write(getResponse().getBytes(UTF_8));
+            return;
+        }
+
+        out.write((getStatusLine() + getServerHeaders(contentEncoding) + EOL).getBytes(UTF_8));
+        encode(contentEncoding, out);
+    }
+
+    /**
+     * Returns the body compressed with the given encoding, gzip or deflate.
+     */
+    public byte[] encodeData(String contentEncoding) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            encode(contentEncoding, body);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return body.toByteArray();
+    }
+
+    private void encode(String contentEncoding, OutputStream out) throws IOException {
+        DeflaterOutputStream body = contentEncoding.equals(GZIP) ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+        body.write(this.body != null ? this.body : getData().getBytes(UTF_8));
+        body.finish();
+    }
+
+    /**
+     * Sends the given body, already encoded with the given encoding, instead of the data.
+     */
+    public void setEncodedBody(String contentEncoding, byte[] body) {
+        this.encodedBodyEncoding = contentEncoding;
+        this.encodedBody = body;
+    }
+
+    /**
+     * Sends the given bytes instead of the data, compressed on the way like the data when the client accepts it.
+     */
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    /**
+     * Sends the given entity tag, without its quotes, and last modification time of the file with the response.
+     */
+    public void setValidators(String entityTag, long lastModified) {
+        this.entityTag = entityTag;
+        this.lastModified = lastModified;
+    }
+
+    public void addServerHeader(String header) {
+        serverHeaders.add(header);
+    }
+
+    /**
+     * Returns the value of the given header of the request, null when the client did not send it.
+     */
+    public String getClientHeader(String name) {
+        for (String header : clientHeaders) {
+            int colon = header.indexOf(':');
+            if (colon >= 0 && header.substring(0, colon).trim().equalsIgnoreCase(name))
+                return header.substring(colon + 1).trim();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the DATA packets of the response for the given peer.
+     */
+    public ArrayList<Packet> toPackets(int peerPort, InetAddress peerAddress) {
+        PacketOutputStream packetStream = new PacketOutputStream(PacketType.DATA, peerPort, peerAddress);
+        try {
+            writeTo(packetStream);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        packetStream.close();
+        return packetStream.getPackets();
+    }
+
     private String getStatusLine() {
         return HTTP_VERSION + " " + status + "\r\n";
     }
@@ -62,17 +193,79 @@ public class Response {
         return contentLength;
     }
 
-    private String getServerHeaders() {
+    private String getServerHeaders(String contentEncoding) {
         StringBuilder headers = new StringBuilder();
         headers.append("Server: localhost" + EOL);
         headers.append("Date: " + new Date() + EOL);
-        headers.append(status == Status.OK ? "Content-Length: " + this.getContentLength() + EOL : "");
+        headers.append(status == Status.OK && contentEncoding == null && encodedBody == null && body == null ? "Content-Length: " + this.getContentLength() + EOL : "");
+        headers.append(encodedBody != null ? "Content-Length: " + encodedBody.length + EOL : "");
+        headers.append(encodedBody == null && body != null && contentEncoding == null ? "Content-Length: " + body.length + EOL : "");
         headers.append(isBodyPresentInResponse() && getContentType() != null? "Content-Type: " + getContentType() + EOL : "");
         headers.append(isBodyPresentInResponse() && getContentDisposition() != null? "Content-Disposition: " + getContentDisposition() + EOL: "");
+        headers.append(contentEncoding != null ? "Content-Encoding: " + contentEncoding + EOL : "");
+        headers.append(isCompressible() ? "Vary: Accept-Encoding" + EOL : "");
+        if (entityTag != null) {
+            // The tag is strong only on the bytes of the file, which its ranges are taken from. A compressed body,
+            // or a body made from the file as text, is only equivalent to them and gets a weak tag.
+            boolean isWeak = contentEncoding != null || (status == Status.OK && body == null);
+            headers.append("ETag: " + (isWeak ? "W/" : "") + "\"" + entityTag + "\"" + EOL);
+            headers.append("Last-Modified: " + DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(lastModified).atOffset(ZoneOffset.UTC)) + EOL);
+        }
+        for (String header : serverHeaders)
+            headers.append(header).append(EOL);
         return headers.toString();
     }
 
-    private String getContentType() {
+    /**
+     * Returns the encoding the server compresses the body with, null when it is sent as it is.
+     */
+    public String getContentEncoding() {
+        return isCompressible() ? getAcceptedEncoding() : null;
+    }
+
+    public boolean isCompressible() {
+        if (status != Status.OK || !isBodyPresentInResponse() || (body != null ? body.length : getData().length()) < MIN_COMPRESSED_LENGTH)
+            return false;
+
+        String contentType = getContentType();
+        return contentType != null && (contentType.startsWith("text/") || contentType.contains("xml")
+                || contentType.contains("json") || contentType.contains("javascript"));
+    }
+
+    // The encoding the client accepts that the server can produce, gzip first
+    private String getAcceptedEncoding() {
+        Set<String> acceptedEncodings = getAcceptedEncodings();
+        return acceptedEncodings.contains(GZIP) ? GZIP : acceptedEncodings.contains(DEFLATE) ? DEFLATE : null;
+    }
+
+    public boolean acceptsEncoding(String contentEncoding) {
+        return getAcceptedEncodings().contains(contentEncoding);
+    }
+
+    // The encodings of the Accept-Encoding header. An encoding with a quality of 0 is refused.
+    private Set<String> getAcceptedEncodings() {
+        Set<String> acceptedEncodings = new HashSet<>();
+        for (String header : clientHeaders) {
+            int colon = header.indexOf(':');
+            if (colon < 0 || !header.substring(0, colon).trim().equalsIgnoreCase("Accept-Encoding"))
+                continue;
+
+            for (String coding : header.substring(colon + 1).split(",")) {
+                String[] parameters = coding.split(";");
+                String name = parameters[0].trim().toLowerCase();
+                boolean isRefused = parameters.length > 1 && parameters[1].trim().matches("q=0(\\.0*)?");
+                if (isRefused)
+                    acceptedEncodings.remove(name);
+                else
+                    acceptedEncodings.add(name);
+            }
+        }
+
+        return acceptedEncodings;
+    }
+
+    public String getContentType() {
+        if(contentType != null) return contentType;
         if(file.isDirectory()) return "text/plain";
 
         String contentType = null;
@@ -88,10 +281,16 @@ public class Response {
         String contentType = getContentType();
         if(contentType == null || !isBodyPresentInResponse()) return null;
         if(contentType != null && contentType.startsWith("text/")) return "inline";
+        // The parts of a multipart body each describe themselves
+        if(contentType.startsWith("multipart/")) return null;
         return "attachment; filename=\"" + file.getName() + "\"";
     }
 
     private boolean isBodyPresentInResponse(){
+        if (encodedBody != null)
+            return httpMethod == HTTPMethod.GET && encodedBody.length > 0;
+        if (body != null)
+            return httpMethod == HTTPMethod.GET && body.length > 0;
         return httpMethod == HTTPMethod.GET && data != null && !data.isEmpty();
     }
 
@@ -123,4 +322,11 @@ public class Response {
         return httpMethod;
     }
 
+    /**
+     * Sets the content type of a body that does not come from a file.
+     */
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
 }
@@ -0,0 +1,75 @@
+package Server;
+
+import Helpers.Packet;
+import Helpers.PacketType;
+import Helpers.Trace;
+import Helpers.UDPConnection;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is one socket of the server with its own receive thread and table of connections.
+ * The thread reads the socket and hands each packet to the connection it belongs to, which runs on its own thread.
+ */
+class SocketShard implements Runnable {
+    private HttpServerLibrary server;
+    private DatagramSocket socket;
+    private final Map<SocketAddress, BlockingQueue<Packet>> connections = new ConcurrentHashMap<>();
+
+    private final static int CONNECTION_QUEUE_CAPACITY = 64;
+
+    private static final Logger logger = Logger.getLogger(HttpServerLibrary.class.getName());
+
+    SocketShard(HttpServerLibrary server, DatagramSocket socket) {
+        this.server = server;
+        this.socket = socket;
+    }
+
+    // The socket is read by this thread only, every packet is handed to the connection it belongs to
+    @Override
+    public void run() {
+        while (!socket.isClosed()) {
+            Packet packet = UDPConnection.receivePacket(socket, server.getRouterAddress() == null);
+            if (packet != null)
+                dispatch(packet);
+        }
+    }
+
+    private void dispatch(Packet packet) {
+        SocketAddress peer = new InetSocketAddress(packet.getPeerAddress(), packet.getPeerPort());
+        BlockingQueue<Packet> inbox = connections.get(peer);
+
+        if (inbox == null) {
+            if (packet.getType() != PacketType.SYN.value) {
+                Trace.record(Trace.Point.DROPPED, packet);
+                return;
+            }
+
+            // A SYN from a new peer opens a connection
+            if (logger.isLoggable(Level.INFO))
+                logger.info("Accepted connection from " + peer);
+            inbox = new ArrayBlockingQueue<>(CONNECTION_QUEUE_CAPACITY);
+            connections.put(peer, inbox);
+            UDPConnection connection = new UDPConnection(socket, inbox);
+            connection.setRouterAddress(server.getRouterAddress());
+            server.getMetrics().connectionOpened();
+            server.startConnection(new ConnectionHandler(server, this, connection, peer));
+        }
+
+        // The reader never blocks on a slow connection: when its queue is full the packet is lost like on the network
+        if (!inbox.offer(packet))
+            Trace.record(Trace.Point.DROPPED, packet);
+    }
+
+    void removeConnection(SocketAddress peer) {
+        connections.remove(peer);
+    }
+}